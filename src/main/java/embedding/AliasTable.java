@@ -0,0 +1,105 @@
+package embedding;
+
+/**
+ * Samples indices proportionally to their weights in constant time (Vose's alias method).
+ * <p>
+ * Every index owns one bucket of equal probability. A bucket keeps its own index with
+ * {@code probability[i]} and hands out {@code alias[i]} otherwise, so a sample needs one uniform
+ * random number and two array reads.
+ */
+public final class AliasTable {
+
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * @param weights non-negative weights, indices are sampled uniformly if they are all 0
+     */
+    public AliasTable(double[] weights) {
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("Cannot sample from an empty alias table");
+        }
+        probability = new double[weights.length];
+        alias = new int[weights.length];
+        fill(weights, 0, weights.length, probability, alias);
+    }
+
+    /**
+     * builds the table of {@code weights[from, to)} into {@code probability[from, to)} and {@code alias[from, to)},
+     * so the tables of many small distributions can share two flat arrays; aliases are relative to {@code from}
+     * and {@code weights} may be the same array as {@code probability}
+     */
+    public static void fill(double[] weights, int from, int to, double[] probability, int[] alias) {
+        final int n = to - from;
+        double total = 0;
+        for (int i = from; i < to; i++) {
+            final double weight = weights[i];
+            if (weight < 0 || Double.isNaN(weight)) {
+                throw new IllegalArgumentException("Weights must not be negative, got " + weight);
+            }
+            total += weight;
+        }
+
+        // scaled so that the average bucket is 1, split into the buckets below and above that
+        final double[] scaled = new double[n];
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int smallCount = 0, largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total > 0 ? weights[from + i] * n / total : 1;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        // fill every small bucket up with the excess of a large one
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+            probability[from + less] = scaled[less];
+            alias[from + less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // what remains is full up to rounding errors
+        while (largeCount > 0) {
+            final int index = large[--largeCount];
+            probability[from + index] = 1;
+            alias[from + index] = index;
+        }
+        while (smallCount > 0) {
+            final int index = small[--smallCount];
+            probability[from + index] = 1;
+            alias[from + index] = index;
+        }
+    }
+
+    /**
+     * @param uniform a uniform random number in [0, 1)
+     */
+    public int sample(double uniform) {
+        return sample(uniform, 0, probability.length, probability, alias);
+    }
+
+    /**
+     * samples from a table built by {@link #fill(double[], int, int, double[], int[])}
+     *
+     * @return an index relative to {@code from}
+     */
+    public static int sample(double uniform, int from, int to, double[] probability, int[] alias) {
+        final int n = to - from;
+        final double scaled = uniform * n;
+        final int bucket = Math.min((int) scaled, n - 1);
+        return scaled - bucket < probability[from + bucket] ? bucket : alias[from + bucket];
+    }
+
+    public int size() {
+        return probability.length;
+    }
+}
@@ -4,6 +4,13 @@ package embedding;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.neo4j.graphalgo.core.utils.ParallelUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Binning {
 
@@ -42,6 +49,167 @@ public class Binning {
         }
     }
 
+    public double[][] logBins(FeatureMatrix matrix) {
+        final double[][] upperBounds = new double[matrix.columns()][];
+        new LogBinsTask(matrix, new AtomicInteger(), upperBounds).run();
+        return upperBounds;
+    }
+
+    /**
+     * log bins every column of the matrix, distributing the columns over the executor
+     *
+     * @param matrix          the matrix, binned in place
+     * @param executorService the executor service
+     * @param concurrency     desired number of threads to spawn
+     * @return the largest value of every bin per column, see {@link #bin(double, double[])}
+     */
+    public double[][] logBins(FeatureMatrix matrix, ExecutorService executorService, int concurrency) {
+        final double[][] upperBounds = new double[matrix.columns()][];
+        final AtomicInteger columnQueue = new AtomicInteger();
+        final ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < Math.min(concurrency, matrix.columns()); i++) {
+            futures.add(executorService.submit(new LogBinsTask(matrix, columnQueue, upperBounds)));
+        }
+        ParallelUtil.awaitTermination(futures);
+        return upperBounds;
+    }
+
+    /**
+     * bins a single value like the column it was learned from
+     *
+     * @param value       the value
+     * @param upperBounds the largest value of every bin of that column
+     * @return the first bin whose largest value is not smaller than the value, or the last bin
+     */
+    public static int bin(double value, double[] upperBounds) {
+        for (int bin = 0; bin < upperBounds.length - 1; bin++) {
+            if (value <= upperBounds[bin]) {
+                return bin;
+            }
+        }
+        return Math.max(0, upperBounds.length - 1);
+    }
+
+    /**
+     * takes columns from the queue until all are binned, reusing its buffers for every column
+     */
+    private static class LogBinsTask implements Runnable {
+
+        private final FeatureMatrix matrix;
+        private final AtomicInteger columnQueue;
+        private final double[] values;
+        private final double[] bins;
+        private final int[] indices;
+        private final double[][] upperBounds;
+
+        LogBinsTask(FeatureMatrix matrix, AtomicInteger columnQueue, double[][] upperBounds) {
+            this.matrix = matrix;
+            this.columnQueue = columnQueue;
+            this.upperBounds = upperBounds;
+            this.values = new double[matrix.rows()];
+            this.bins = new double[matrix.rows()];
+            this.indices = new int[matrix.rows()];
+        }
+
+        @Override
+        public void run() {
+            for (; ; ) {
+                final int column = columnQueue.getAndIncrement();
+                if (column >= matrix.columns()) {
+                    return;
+                }
+                final FeatureMatrix.Column featureColumn = matrix.column(column);
+                featureColumn.copyTo(values);
+                upperBounds[column] = logBins(values, indices, bins);
+                featureColumn.copyFrom(bins);
+            }
+        }
+    }
+
+    /**
+     * Assigns the lowest half of the values to bin 0, the next quarter to bin 1 and so on.
+     * <p>
+     * Instead of sorting the whole column the bin boundaries are found with nested
+     * quickselects over the remaining upper part, which takes linear time in expectation.
+     * Equal values are ranked by their index, so the bins are the same a full sort would give.
+     *
+     * @return the largest value of every bin
+     */
+    static double[] logBins(double[] values, int[] indices, double[] bins) {
+        final int rows = values.length;
+        for (int i = 0; i < rows; i++) {
+            indices[i] = i;
+        }
+
+        double[] upperBounds = new double[8];
+        int low = 0;
+        int remaining = rows / 2;
+        int binNumber = 0;
+        while (low < rows) {
+            final int high = rows - remaining;
+            if (high < rows) {
+                select(values, indices, low, rows - 1, high);
+            }
+            double upperBound = Double.NEGATIVE_INFINITY;
+            for (int rank = low; rank < high; rank++) {
+                bins[indices[rank]] = binNumber;
+                upperBound = Math.max(upperBound, values[indices[rank]]);
+            }
+            if (binNumber == upperBounds.length) {
+                upperBounds = Arrays.copyOf(upperBounds, binNumber * 2);
+            }
+            upperBounds[binNumber] = upperBound;
+            low = high;
+            remaining /= 2;
+            binNumber++;
+        }
+        return Arrays.copyOf(upperBounds, binNumber);
+    }
+
+    /**
+     * partially orders indices[low..high] so that indices[k] holds the k-th smallest value,
+     * with only smaller values before and only larger values after it
+     */
+    private static void select(double[] values, int[] indices, int low, int high, int k) {
+        while (high > low) {
+            final int pivot = indices[medianOfThree(values, indices, low, (low + high) >>> 1, high)];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (less(values, indices[i], pivot)) i++;
+                while (less(values, pivot, indices[j])) j--;
+                if (i <= j) {
+                    swap(indices, i++, j--);
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static int medianOfThree(double[] values, int[] indices, int a, int b, int c) {
+        if (less(values, indices[a], indices[b])) {
+            return less(values, indices[b], indices[c]) ? b : less(values, indices[a], indices[c]) ? c : a;
+        }
+        return less(values, indices[a], indices[c]) ? a : less(values, indices[b], indices[c]) ? c : b;
+    }
+
+    private static boolean less(double[] values, int left, int right) {
+        final int compare = Double.compare(values[left], values[right]);
+        return compare < 0 || (compare == 0 && left < right);
+    }
+
+    private static void swap(int[] indices, int i, int j) {
+        final int tmp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = tmp;
+    }
+
     public void logBins(INDArray indArray) {
         for (int column = 0; column < indArray.size(1); column++) {
             int remaining = indArray.size(0);
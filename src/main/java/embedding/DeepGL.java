@@ -18,29 +18,86 @@
  */
 package embedding;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.ops.transforms.Transforms;
 import org.neo4j.graphalgo.core.heavyweight.HeavyGraph;
 import org.neo4j.graphalgo.core.utils.ParallelUtil;
 import org.neo4j.graphalgo.core.utils.ProgressLogger;
+import org.neo4j.graphalgo.core.utils.paged.AllocationTracker;
 import org.neo4j.graphdb.Direction;
 
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.function.IntToLongFunction;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class DeepGL extends Algorithm<DeepGL> {
 
-    private final int numNeighbourhoods;
+    // all neighbourhoods in the order their features are laid out: _out, _in, _both
+    private static final Direction[] NEIGHBOURHOODS = {Direction.OUTGOING, Direction.INCOMING, Direction.BOTH};
+
+    private static final double RBF_SIGMA = 16;
+
+    // slots of the built-in operators in the fused and matrix kernels, see DeepGLOperators.BUILT_IN
+    private static final int SUM = 0, HADAMARD = 1, MAX = 2, MEAN = 3, RBF = 4, L1_NORM = 5;
+    // slot of registered operators, which the fused kernel calls per node and column
+    private static final int CUSTOM = -1;
+
+    // number of feature columns the matrix kernels process at once
+    private static final int MATRIX_BLOCK_WIDTH = 16;
+
+    /**
+     * how the relational operators are evaluated
+     * <p>
+     * Only FUSED works on {@link FeatureMatrix.Storage#MAPPED} storage: it streams over the columns of the
+     * previous layer, while NDARRAY and MATRIX copy the whole previous layer onto the heap first.
+     */
+    public enum Mode {
+        // one INDArray reduction per operator over the gathered neighbourhood rows
+        NDARRAY,
+        // all operators in a single pass over each neighbour row, written straight into the layer
+        FUSED,
+        // sparse-dense products and segmented reductions over the CSR adjacency, one block of columns at a time
+        MATRIX;
+
+        public static Mode parse(String mode) {
+            switch (mode.toLowerCase()) {
+                case "ndarray":
+                    return NDARRAY;
+                case "fused":
+                    return FUSED;
+                case "matrix":
+                    return MATRIX;
+                default:
+                    throw new IllegalArgumentException("Unknown mode: " + mode + ", expected 'fused', 'matrix' or 'ndarray'");
+            }
+        }
+    }
+
+    // the neighbourhoods the operators are applied to, a subset of NEIGHBOURHOODS in the same order
+    private Direction[] neighbourhoods = NEIGHBOURHOODS;
+    // treat relationships as undirected even if they are not stored in both directions
+    private boolean undirected = false;
+    // neighbours kept per neighbourhood, 0 keeps all of them
+    private int maxNeighbours = 0;
+    private long samplingSeed = 42L;
+    // statistics of the neighbour reads per node, see nodeCost()
+    private Map<String, Object> nodeCost = Collections.emptyMap();
     // the graph
     private HeavyGraph graph;
-    // AI counts up for every node until nodeCount is reached
-    private volatile AtomicInteger nodeQueue = new AtomicInteger();
+    // primitive out/in/both adjacency, built once per compute()
+    private NeighbourhoodIndex neighbourhoodIndex;
+    // relationships of the loaded graph, counted before the index is made undirected or sampled
+    private long relationshipCount;
+    // degree-weighted node batches for the per-node tasks, built once per compute()
+    private NodeBatches nodeBatches;
+    // average number of nodes per batch, 0 picks one from nodeCount and concurrency
+    private int batchSize = 0;
 
     // the node count
     private final int nodeCount;
@@ -55,17 +112,40 @@ public class DeepGL extends Algorithm<DeepGL> {
     private Pruning.Feature[] features;
     private Pruning.Feature[] prevFeatures;
 
-    private INDArray embedding;
-    private INDArray prevEmbedding;
+    private FeatureMatrix embedding;
+    private FeatureMatrix prevEmbedding;
     private int diffusionIterations;
+    // stop diffusing once no value changes by more than this, 0 always runs all iterations
+    private double diffusionEpsilon = 0;
 
     private int numberOfLayers;
+    // ids of the features kept by the previous layer, null while the base layer is computed
+    private BitSet prevFeatureIds;
+
+    private Mode mode = Mode.FUSED;
+    private FeatureMatrix.Storage storage = FeatureMatrix.Storage.HEAP;
+    // the type of the binned embedding, raw layers are kept as floats when it is BYTE
+    private FeatureMatrix.Precision precision = FeatureMatrix.Precision.DOUBLE;
+    // LSH bands used to find duplicate features, 0 compares all pairs
+    private int pruningHashBands = 0;
+    private int pruningRowsPerBand = 8;
+    // refuse to compute a layer whose estimated peak memory exceeds this many bytes
+    private long memoryBudget = Long.MAX_VALUE;
+    // shares the sub-expressions of the features of all layers
+    private final FeatureDag featureDag = new FeatureDag();
+    // what the learned features need to be evaluated again, see model()
+    private final Map<Pruning.Feature, double[]> binUpperBounds = new HashMap<>();
+    private final Map<Pruning.Feature, Integer> diffusionSteps = new HashMap<>();
+    private final Map<String, String> propertyKeys = new LinkedHashMap<>();
+
+    // directory for mapped feature columns, also used when a layer exceeds the memory budget
+    private Path spillDirectory;
 
     /**
      * constructs a parallel centrality solver
      *
      * @param graph               the graph iface
-     * @param executorService     the executor service
+     * @param executorService     the executor service, also runs the node batches if it is a {@link ForkJoinPool}
      * @param concurrency         desired number of threads to spawn
      * @param pruningLambda
      * @param diffusionIterations
@@ -75,13 +155,101 @@ public class DeepGL extends Algorithm<DeepGL> {
         this.nodeCount = Math.toIntExact(graph.nodeCount());
         this.executorService = executorService;
         this.concurrency = concurrency;
-        this.embedding = Nd4j.create(nodeCount, 3 + graph.availableNodeProperties().size());
-        this.numNeighbourhoods = 3;
         this.iterations = iterations;
         this.pruningLambda = pruningLambda;
         this.diffusionIterations = diffusionIterations;
     }
 
+    /**
+     * @param names built-in or registered operator names, see {@link DeepGLOperators}
+     */
+    public DeepGL withOperators(List<String> names) {
+        DeepGLOperators.validate(names);
+        final RelOperator[] builtIn = {sum, hadamard, max, mean, rbf, l1Norm};
+        this.operators = new RelOperator[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            final int slot = DeepGLOperators.BUILT_IN.indexOf(names.get(i));
+            this.operators[i] = slot == -1 ? new RegisteredOperator(DeepGLOperators.custom(names.get(i))) : builtIn[slot];
+        }
+        return this;
+    }
+
+    /**
+     * @param neighbourhoods any of OUTGOING, INCOMING and BOTH
+     */
+    public DeepGL withNeighbourhoods(List<Direction> neighbourhoods) {
+        if (neighbourhoods.isEmpty()) {
+            throw new IllegalArgumentException("At least one neighbourhood is required");
+        }
+        this.neighbourhoods = Arrays.stream(NEIGHBOURHOODS)
+                .filter(neighbourhoods::contains)
+                .toArray(Direction[]::new);
+        return this;
+    }
+
+    /**
+     * @param undirected whether the out, in and both neighbourhoods are all the same; graphs that store every
+     *                   relationship in both directions are detected without it
+     */
+    public DeepGL withUndirected(boolean undirected) {
+        this.undirected = undirected;
+        return this;
+    }
+
+    /**
+     * @param maxNeighbours neighbours kept per out and in neighbourhood by deterministic reservoir sampling, 0 keeps all
+     * @param seed          the seed of the sampling
+     */
+    public DeepGL withNeighbourSampling(int maxNeighbours, long seed) {
+        this.maxNeighbours = maxNeighbours;
+        this.samplingSeed = seed;
+        return this;
+    }
+
+    public DeepGL withMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @param storage where the feature columns are allocated, MAPPED storage requires the FUSED mode
+     */
+    public DeepGL withStorage(FeatureMatrix.Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public DeepGL withPrecision(FeatureMatrix.Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    public DeepGL withDiffusionEpsilon(double diffusionEpsilon) {
+        this.diffusionEpsilon = diffusionEpsilon;
+        return this;
+    }
+
+    public DeepGL withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public DeepGL withSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public DeepGL withMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public DeepGL withPruningHashing(int bands, int rowsPerBand) {
+        this.pruningHashBands = bands;
+        this.pruningRowsPerBand = rowsPerBand;
+        return this;
+    }
+
     /**
      * compute centrality
      *
@@ -90,26 +258,100 @@ public class DeepGL extends Algorithm<DeepGL> {
     public DeepGL compute() {
         ProgressLogger logger = getProgressLogger();
         logger.log("Executing with {iterations:" + iterations + ", pruningLambda:" + pruningLambda + ", diffusions:" + diffusionIterations + "}");
+        if (storage == FeatureMatrix.Storage.MAPPED && mode != Mode.FUSED) {
+            throw new IllegalArgumentException("Mapped storage only supports the fused mode, the " + mode + " mode copies every layer onto the heap");
+        }
 
-        // base features
-        nodeQueue.set(0);
-        final ArrayList<Future<?>> futures = new ArrayList<>();
-        for (int i = 0; i < concurrency; i++) {
-            futures.add(executorService.submit(new BaseFeaturesTask()));
+        logger.log("Building neighbourhood index");
+        neighbourhoodIndex = NeighbourhoodIndex.build(graph, executorService, concurrency);
+        // every relationship is stored once as out and once as in neighbour
+        relationshipCount = neighbourhoodIndex.targets().length / 2;
+        final boolean symmetric = neighbourhoodIndex.isSymmetric(executorService, concurrency);
+        if (undirected || symmetric) {
+            // all neighbourhoods are the same, so only the both neighbourhood is computed
+            logger.log("Undirected graph, using the both neighbourhood only");
+            neighbourhoodIndex = neighbourhoodIndex.toUndirected(symmetric, executorService, concurrency);
+            neighbourhoods = new Direction[]{Direction.BOTH};
+        }
+        if (maxNeighbours > 0) {
+            neighbourhoodIndex = neighbourhoodIndex.sample(maxNeighbours, samplingSeed, executorService, concurrency);
+        }
+        logger.log("Built neighbourhood index");
+        nodeCost = neighbourReads();
+        logger.log("Neighbour reads per node and feature: " + nodeCost);
+
+        checkMemory(0, 3 + graph.availableNodeProperties().size());
+
+        // the batches steal work, a fork-join executor is shared, any other executor cannot run them
+        // and the batches get a pool of their own bounded to the concurrency
+        final boolean sharedPool = executorService instanceof ForkJoinPool;
+        final ForkJoinPool pool = sharedPool ? (ForkJoinPool) executorService : new ForkJoinPool(concurrency);
+        try {
+            nodeBatches = NodeBatches.degreeWeighted(neighbourhoodIndex, effectiveBatchSize(), pool);
+            logger.log("Node batches: " + nodeBatches.batchCount());
+            computeLayers();
+        } finally {
+            if (!sharedPool) {
+                pool.shutdown();
+            }
         }
-        ParallelUtil.awaitTermination(futures);
+
+        return this;
+    }
+
+    /**
+     * estimates the layer and spills to mapped columns or fails if it does not fit into the memory budget,
+     * only the fused mode spills as the other modes copy the previous layer onto the heap
+     *
+     * @param layer        the layer, 0 for the base features
+     * @param prevFeatures number of features of the previous layer or of the base layer itself
+     */
+    private void checkMemory(int layer, int prevFeatures) {
+        DeepGLMemoryEstimation.Estimate estimate = estimateMemory(layer, prevFeatures);
+        if (estimate.totalBytes() > memoryBudget && storage != FeatureMatrix.Storage.MAPPED && mode == Mode.FUSED && spillDirectory != null) {
+            getProgressLogger().log("Layer " + estimate.layer + " exceeds the memory budget, spilling features to " + spillDirectory);
+            storage = FeatureMatrix.Storage.MAPPED;
+            estimate = estimateMemory(layer, prevFeatures);
+        }
+        if (estimate.totalBytes() > memoryBudget) {
+            throw new IllegalStateException("DeepGL layer " + estimate.layer + " needs an estimated " +
+                    AllocationTracker.humanReadable(estimate.totalBytes()) + " but the memory budget is " +
+                    AllocationTracker.humanReadable(memoryBudget));
+        }
+    }
+
+    private DeepGLMemoryEstimation.Estimate estimateMemory(int layer, int prevFeatures) {
+        final DeepGLMemoryEstimation estimation = new DeepGLMemoryEstimation(nodeCount, relationshipCount, operators.length, neighbourhoods.length, concurrency, mode, storage, precision);
+        final DeepGLMemoryEstimation.Estimate estimate = layer == 0 ? estimation.base(prevFeatures) : estimation.layer(layer, prevFeatures);
+        getProgressLogger().log("Estimated memory for layer " + estimate.layer + ": heap " + AllocationTracker.humanReadable(estimate.heapBytes) +
+                ", off-heap " + AllocationTracker.humanReadable(estimate.offHeapBytes));
+        return estimate;
+    }
+
+    private int effectiveBatchSize() {
+        return batchSize > 0 ? batchSize : Math.max(64, nodeCount / (concurrency * 16));
+    }
+
+    private void computeLayers() {
+        ProgressLogger logger = getProgressLogger();
+
+        // base features
+        embedding = FeatureMatrix.create(nodeCount, 3 + graph.availableNodeProperties().size(), storage, rawPrecision(), spillDirectory);
+        nodeBatches.forEachBatch(new BaseFeaturesTask());
 
         Set<String> nodeProperties = graph.availableNodeProperties();
         this.features = new Pruning.Feature[3 + nodeProperties.size()];
-        this.features[0] = new Pruning.Feature("IN_DEGREE");
-        this.features[1] = new Pruning.Feature("OUT_DEGREE");
-        this.features[2] = new Pruning.Feature("BOTH_DEGREE");
+        this.features[0] = featureDag.base("IN_DEGREE");
+        this.features[1] = featureDag.base("OUT_DEGREE");
+        this.features[2] = featureDag.base("BOTH_DEGREE");
 
         Iterator<String> iterator = nodeProperties.iterator();
         int counter = 3;
 
         while (iterator.hasNext()) {
-            this.features[counter] = new Pruning.Feature(iterator.next().toUpperCase());
+            final String propertyKey = iterator.next();
+            this.features[counter] = featureDag.base(propertyKey.toUpperCase());
+            propertyKeys.put(propertyKey.toUpperCase(), propertyKey);
             counter++;
         }
 
@@ -124,24 +366,22 @@ public class DeepGL extends Algorithm<DeepGL> {
             logger.logProgress((double) iteration / iterations);
             logger.log("Current layer: " + iteration);
 
-            features = new Pruning.Feature[numNeighbourhoods * operators.length * prevFeatures.length];
-
-            embedding = Nd4j.create(nodeCount, numNeighbourhoods * operators.length * prevFeatures.length);
+            checkMemory(iteration, prevFeatures.length);
+            features = new Pruning.Feature[neighbourhoods.length * operators.length * prevFeatures.length];
+            prevFeatureIds = new BitSet(featureDag.size());
+            for (Pruning.Feature prevFeature : prevFeatures) {
+                prevFeatureIds.set(prevFeature.getId());
+            }
 
             logger.log("Applying operators");
-            nodeQueue.set(0);
-            final ArrayList<Future<?>> opFutures = new ArrayList<>();
-            for (int i = 0; i < concurrency; i++) {
-                opFutures.add(executorService.submit(new OpsTask()));
-            }
-            ParallelUtil.awaitTermination(opFutures);
+            applyOperators();
 
             List<Pruning.Feature> featuresList = new LinkedList<>();
 
-            for (String neighbourhood : new String[]{"_out", "_in", "_both"}) {
+            for (Direction neighbourhood : neighbourhoods) {
                 for (RelOperator operator : operators) {
                     for (Pruning.Feature prevFeature : prevFeatures) {
-                        featuresList.add(new Pruning.Feature(operator.name() + neighbourhood + "_neighbourhood", prevFeature));
+                        featuresList.add(featureDag.apply(operator.name() + suffix(neighbourhood) + "_neighbourhood", prevFeature));
                     }
                 }
             }
@@ -157,12 +397,14 @@ public class DeepGL extends Algorithm<DeepGL> {
 
             doPruning();
 
-            HashSet<Pruning.Feature> uniqueFeaturesSet = new HashSet<>(Arrays.asList(this.features));
-            HashSet<Pruning.Feature> prevFeaturesSet = new HashSet<>(Arrays.asList(this.prevFeatures));
-
-            uniqueFeaturesSet.removeAll(prevFeaturesSet);
-            logger.log("Unique features this iteration: " + uniqueFeaturesSet.size());
-            if (uniqueFeaturesSet.size() == 0) {
+            int uniqueFeatures = 0;
+            for (Pruning.Feature feature : this.features) {
+                if (!prevFeatureIds.get(feature.getId())) {
+                    uniqueFeatures++;
+                }
+            }
+            logger.log("Unique features this iteration: " + uniqueFeatures);
+            if (uniqueFeatures == 0) {
                 embedding = prevEmbedding;
                 features = prevFeatures;
                 this.numberOfLayers = iteration;
@@ -174,84 +416,184 @@ public class DeepGL extends Algorithm<DeepGL> {
         }
 
         this.numberOfLayers = iteration;
+    }
 
-        return this;
+    private void applyOperators() {
+        final int width = neighbourhoods.length * operators.length * prevFeatures.length;
+        final int[] fusedSlots = fusedSlots();
+        final boolean registered = Arrays.stream(fusedSlots).anyMatch(slot -> slot == CUSTOM);
+
+        embedding = FeatureMatrix.create(nodeCount, width, storage, rawPrecision(), spillDirectory);
+        if (mode == Mode.FUSED || (mode == Mode.MATRIX && registered)) {
+            // the matrix kernels only know the built-in operators
+            nodeBatches.forEachBatch(new FusedOpsTask(fusedSlots));
+        } else if (mode == Mode.MATRIX) {
+            nodeBatches.forEachBatch(new MatrixOpsTask(fusedSlots, gatherBlocks()));
+        } else {
+            nodeBatches.forEachBatch(new OpsTask(prevEmbedding.toINDArray()));
+        }
+    }
+
+    /**
+     * @return the previous layer as dense row-major blocks of {@link #MATRIX_BLOCK_WIDTH} columns
+     */
+    private double[][] gatherBlocks() {
+        final int prevColumns = prevEmbedding.columns();
+        final double[][] blocks = new double[ParallelUtil.threadSize(MATRIX_BLOCK_WIDTH, prevColumns)][];
+        ParallelUtil.iterateParallel(executorService, blocks.length, concurrency, block -> {
+            final int blockStart = block * MATRIX_BLOCK_WIDTH;
+            final int width = Math.min(MATRIX_BLOCK_WIDTH, prevColumns - blockStart);
+            final double[] x = new double[Math.multiplyExact(nodeCount, width)];
+            for (int f = 0; f < width; f++) {
+                final FeatureMatrix.Column column = prevEmbedding.column(blockStart + f);
+                for (int node = 0; node < nodeCount; node++) {
+                    x[node * width + f] = column.get(node);
+                }
+            }
+            blocks[block] = x;
+        });
+        return blocks;
+    }
+
+    /**
+     * @return the fused and matrix kernel slot of every configured operator, {@link #CUSTOM} for registered operators
+     */
+    private int[] fusedSlots() {
+        final RelOperator[] builtIn = {sum, hadamard, max, mean, rbf, l1Norm};
+        final int[] slots = new int[operators.length];
+        for (int i = 0; i < operators.length; i++) {
+            slots[i] = Arrays.asList(builtIn).indexOf(operators[i]);
+        }
+        return slots;
+    }
+
+    private static String suffix(Direction neighbourhood) {
+        switch (neighbourhood) {
+            case OUTGOING:
+                return "_out";
+            case INCOMING:
+                return "_in";
+            default:
+                return "_both";
+        }
     }
 
     private void diffuse(List<Pruning.Feature> featuresList) {
-        INDArray ndDiffused = Nd4j.create(embedding.shape());
-        Nd4j.copy(embedding, ndDiffused);
+        // ping-pong buffers, each iteration reads one and overwrites the other
+        FeatureMatrix diffused = embedding.copy();
+        FeatureMatrix diffusedTemp = FeatureMatrix.create(nodeCount, embedding.columns(), storage, rawPrecision(), spillDirectory);
 
         featuresList.addAll(featuresList);
         features = featuresList.toArray(new Pruning.Feature[0]);
 
         for (int i = features.length / 2; i < features.length; i++) {
-            features[i] = new Pruning.Feature("diffuse", features[i]);
+            features[i] = featureDag.apply("diffuse", features[i]);
         }
 
-        for (int diffIteration = 0; diffIteration < diffusionIterations; diffIteration++) {
-            INDArray ndDiffusedTemp = Nd4j.create(embedding.shape());
-            nodeQueue.set(0);
-            final ArrayList<Future<?>> futures = new ArrayList<>();
-            for (int i = 0; i < concurrency; i++) {
-                futures.add(executorService.submit(new DiffusionTask(ndDiffused, ndDiffusedTemp)));
+        int diffIteration;
+        for (diffIteration = 0; diffIteration < diffusionIterations; diffIteration++) {
+            final DiffusionTask task = new DiffusionTask(diffused, diffusedTemp);
+            nodeBatches.forEachBatch(task);
+
+            final FeatureMatrix swap = diffused;
+            diffused = diffusedTemp;
+            diffusedTemp = swap;
+
+            if (diffusionEpsilon > 0) {
+                if (task.maxChange.get() < diffusionEpsilon) {
+                    diffIteration++;
+                    break;
+                }
+            }
+        }
+        getProgressLogger().log("Diffusion iterations: " + diffIteration);
+        for (int i = features.length / 2; i < features.length; i++) {
+            if (isNew(features[i])) {
+                diffusionSteps.put(features[i], diffIteration);
             }
-            ParallelUtil.awaitTermination(futures);
-            ndDiffused = ndDiffusedTemp;
         }
-        embedding = Nd4j.concat(1, embedding, ndDiffused);
+        embedding = embedding.concat(diffused);
     }
 
-    private class DiffusionTask implements Runnable {
+    private class DiffusionTask implements NodeBatches.BatchConsumer {
 
-        private final INDArray ndDiffused;
-        private final INDArray ndDiffusedTemp;
+        private final FeatureMatrix diffused;
+        private final FeatureMatrix diffusedTemp;
+        // largest absolute change of any value written in this iteration
+        private final DoubleAccumulator maxChange = new DoubleAccumulator(Math::max, 0);
 
-        public DiffusionTask(INDArray ndDiffused, INDArray ndDiffusedTemp) {
-            this.ndDiffused = ndDiffused;
-            this.ndDiffusedTemp = ndDiffusedTemp;
+        public DiffusionTask(FeatureMatrix diffused, FeatureMatrix diffusedTemp) {
+            this.diffused = diffused;
+            this.diffusedTemp = diffusedTemp;
         }
 
         @Override
-        public void run() {
-            for (; ; ) {
-                final int nodeId = nodeQueue.getAndIncrement();
-                if (nodeId >= nodeCount || !running()) {
-                    return;
+        public void accept(int from, int to) {
+            double batchMaxChange = 0;
+            final int[] targets = neighbourhoodIndex.targets();
+            // column by column like the fused operators, the neighbour reads of a batch stay within one column
+            for (int column = 0; column < diffused.columns() && running(); column++) {
+                final FeatureMatrix.Column oldVals = diffused.column(column);
+                final FeatureMatrix.Column newVals = diffusedTemp.column(column);
+                for (int nodeId = from; nodeId < to; nodeId++) {
+                    final int start = neighbourhoodIndex.start(nodeId, Direction.BOTH);
+                    final int end = neighbourhoodIndex.end(nodeId, Direction.BOTH);
+                    double value = 0;
+                    if (start != end) {
+                        for (int i = start; i < end; i++) {
+                            value += oldVals.get(targets[i]);
+                        }
+                        value /= end - start;
+                    }
+                    batchMaxChange = Math.max(batchMaxChange, Math.abs(value - oldVals.get(nodeId)));
+                    newVals.set(nodeId, value);
                 }
-
-                List<Integer> neighbours = new LinkedList<>();
-                graph.forEachRelationship(nodeId, Direction.BOTH, (sourceNodeId, targetNodeId, relationId) -> {
-                    neighbours.add(targetNodeId);
-                    return true;
-                });
-
-                final INDArray oldVals = ndDiffused.getRows(ArrayUtils.toPrimitive(neighbours.toArray(new Integer[0])));
-                ndDiffusedTemp.putRow(nodeId, oldVals.mean(0));
             }
+            maxChange.accumulate(batchMaxChange);
         }
     }
 
     private void doBinning() {
-        new Binning().logBins(embedding);
+        final double[][] upperBounds = new Binning().logBins(embedding, executorService, concurrency);
+        for (int column = 0; column < upperBounds.length; column++) {
+            if (isNew(features[column])) {
+                binUpperBounds.put(features[column], upperBounds[column]);
+            }
+        }
+        // bins are small whole numbers
+        embedding = embedding.withPrecision(precision);
+    }
+
+    /**
+     * @return whether the feature is not one of the kept features of the previous layer; those keep the column,
+     * bins and diffusion steps of the layer they were kept in, recomputing them may diffuse for a different
+     * number of iterations once diffusion stops early
+     */
+    private boolean isNew(Pruning.Feature feature) {
+        return prevFeatureIds == null || !prevFeatureIds.get(feature.getId());
+    }
+
+    private FeatureMatrix.Precision rawPrecision() {
+        return precision == FeatureMatrix.Precision.BYTE ? FeatureMatrix.Precision.FLOAT : precision;
     }
 
     private void doPruning() {
-        int ndSizeBefore = embedding.size(1);
+        int ndSizeBefore = embedding.columns();
 
-        Pruning pruning = new Pruning(pruningLambda, getProgressLogger());
+        Pruning pruning = new Pruning(pruningLambda, getProgressLogger())
+                .withLocalitySensitiveHashing(pruningHashBands, pruningRowsPerBand);
         Pruning.Embedding prunedEmbedding = pruning.prune(new Pruning.Embedding(prevFeatures, prevEmbedding), new Pruning.Embedding(features, embedding));
 
         features = prunedEmbedding.getFeatures();
 
-        embedding = prunedEmbedding.getNDEmbedding();
+        embedding = prunedEmbedding.getEmbedding();
 
-        int ndSizeAfter = embedding.size(1);
+        int ndSizeAfter = embedding.columns();
 
         getProgressLogger().log("Feature Pruning: Before: [" + ndSizeBefore + "], After: [" + ndSizeAfter + "]");
     }
 
-    public INDArray embedding() {
+    public FeatureMatrix embedding() {
         return embedding;
     }
 
@@ -261,11 +603,21 @@ public class DeepGL extends Algorithm<DeepGL> {
      * @return stream if Results
      */
     public Stream<DeepGL.Result> resultStream() {
-        return IntStream.range(0, nodeCount)
-                .mapToObj(nodeId ->
-                        new DeepGL.Result(
-                                graph.toOriginalNodeId(nodeId),
-                                embedding.getRow(nodeId)));
+        return resultStream(0, nodeCount);
+    }
+
+    /**
+     * emit the results of the nodes from..to
+     */
+    public Stream<DeepGL.Result> resultStream(int from, int to) {
+        return resultStream(embedding, graph::toOriginalNodeId, new NodeRange(from, to));
+    }
+
+    static Stream<DeepGL.Result> resultStream(FeatureMatrix embedding, IntToLongFunction toOriginalNodeId, NodeRange range) {
+        return range.pages((from, to) -> {
+            final Object[] rows = embedding.rows(from, to);
+            return IntStream.range(from, to).mapToObj(nodeId -> new DeepGL.Result(toOriginalNodeId.applyAsLong(nodeId), rows[nodeId - from]));
+        });
     }
 
     public Stream<Pruning.Feature> featureStream() {
@@ -280,37 +632,97 @@ public class DeepGL extends Algorithm<DeepGL> {
     @Override
     public DeepGL release() {
         graph = null;
+        neighbourhoodIndex = null;
         return null;
     }
 
+    /**
+     * @return max, mean and percentiles of the neighbour reads per node, feature and layer, the node with
+     * the most reads and the number of nodes whose neighbourhoods were sampled
+     */
+    public Map<String, Object> nodeCost() {
+        return nodeCost;
+    }
+
+    /**
+     * counts the neighbour reads of every node: one pass over each configured neighbourhood for the
+     * operators and one over the both neighbourhood for every diffusion iteration
+     */
+    private Map<String, Object> neighbourReads() {
+        final long[] costs = new long[nodeCount];
+        long total = 0;
+        int maxNode = 0;
+        int sampledNodes = 0;
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            long cost = (long) diffusionIterations * neighbourhoodIndex.degree(nodeId, Direction.BOTH);
+            boolean sampled = false;
+            for (Direction neighbourhood : neighbourhoods) {
+                cost += neighbourhoodIndex.degree(nodeId, neighbourhood);
+            }
+            for (Direction neighbourhood : NEIGHBOURHOODS) {
+                sampled |= neighbourhoodIndex.degree(nodeId, neighbourhood) < neighbourhoodIndex.originalDegree(nodeId, neighbourhood);
+            }
+            costs[nodeId] = cost;
+            total += cost;
+            if (cost > costs[maxNode]) {
+                maxNode = nodeId;
+            }
+            if (sampled) {
+                sampledNodes++;
+            }
+        }
+
+        final Map<String, Object> stats = new TreeMap<>();
+        if (nodeCount == 0) {
+            return stats;
+        }
+        stats.put("max", costs[maxNode]);
+        stats.put("maxNodeId", graph.toOriginalNodeId(maxNode));
+        stats.put("mean", (double) total / nodeCount);
+        stats.put("sampledNodes", sampledNodes);
+        Arrays.sort(costs);
+        stats.put("p50", costs[(nodeCount - 1) / 2]);
+        stats.put("p99", costs[(int) ((nodeCount - 1) * 0.99)]);
+        return stats;
+    }
+
+    /**
+     * @return milliseconds each worker thread spent on node batches during {@link #compute()}
+     */
+    public Map<String, Long> threadMillis() {
+        return nodeBatches == null ? Collections.emptyMap() : nodeBatches.threadMillis();
+    }
+
     public int numberOfLayers() {
         return numberOfLayers;
     }
 
+    /**
+     * @return the learned features with their bins, to evaluate them for single nodes later on
+     */
+    public DeepGLModel model() {
+        return new DeepGLModel(features, binUpperBounds, diffusionSteps, propertyKeys, neighbourhoodIndex.isUndirected(), maxNeighbours, samplingSeed, precision);
+    }
+
     public Pruning.Feature[] features() {
         return features;
     }
 
     /**
-     * a BaseFeaturesTask takes one element from the nodeQueue as long as
-     * it is lower then nodeCount and calculates it's centrality
+     * a BaseFeaturesTask calculates the degrees and node properties of every node in its batch
      */
-    private class BaseFeaturesTask implements Runnable {
+    private class BaseFeaturesTask implements NodeBatches.BatchConsumer {
 
         @Override
-        public void run() {
-            for (; ; ) {
-                final int nodeId = nodeQueue.getAndIncrement();
-                if (nodeId >= nodeCount || !running()) {
-                    return;
-                }
-
+        public void accept(int from, int to) {
+            for (int nodeId = from; nodeId < to && running(); nodeId++) {
                 Set<String> nodeProperties = graph.availableNodeProperties();
 
                 double[] row = new double[3 + nodeProperties.size()];
-                row[0] = graph.degree(nodeId, Direction.INCOMING);
-                row[1] = graph.degree(nodeId, Direction.OUTGOING);
-                row[2] = graph.degree(nodeId, Direction.BOTH);
+                // the degrees of the full graph, even if the neighbourhoods are sampled
+                row[0] = neighbourhoodIndex.originalDegree(nodeId, Direction.INCOMING);
+                row[1] = neighbourhoodIndex.originalDegree(nodeId, Direction.OUTGOING);
+                row[2] = neighbourhoodIndex.originalDegree(nodeId, Direction.BOTH);
 
                 Iterator<String> iterator = nodeProperties.iterator();
                 int counter = 3;
@@ -320,70 +732,216 @@ public class DeepGL extends Algorithm<DeepGL> {
                     counter++;
                 }
 
-                embedding.putRow(nodeId, Nd4j.create(row));
+                for (int column = 0; column < row.length; column++) {
+                    embedding.set(nodeId, column, row[column]);
+                }
             }
         }
     }
 
-    private class OpsTask implements Runnable {
-
-        @Override
-        public void run() {
-            for (; ; ) {
-                final int nodeId = nodeQueue.getAndIncrement();
-                if (nodeId >= nodeCount || !running()) {
-                    return;
-                }
+    private class OpsTask implements NodeBatches.BatchConsumer {
 
-                List<Integer> bothNeighbours = new LinkedList<>();
-                List<Integer> inNeighbours = new LinkedList<>();
-                List<Integer> outNeighbours = new LinkedList<>();
-                final List<List<Integer>> neighbourhoods = Arrays.asList(outNeighbours, inNeighbours, bothNeighbours);
+        private final INDArray ndPrevEmbedding;
 
-                graph.forEachRelationship(nodeId, Direction.BOTH, (sourceNodeId, targetNodeId, relationId) -> {
-                    bothNeighbours.add(targetNodeId);
-                    if (graph.exists(sourceNodeId, targetNodeId, Direction.OUTGOING)) {
-                        outNeighbours.add(targetNodeId);
-                    } else {
-                        inNeighbours.add(targetNodeId);
-                    }
-                    return true;
-                });
+        OpsTask(INDArray ndPrevEmbedding) {
+            this.ndPrevEmbedding = ndPrevEmbedding;
+        }
 
+        @Override
+        public void accept(int from, int to) {
+            for (int nodeId = from; nodeId < to && running(); nodeId++) {
                 List<INDArray> arrays = new ArrayList<>();
-                for (List<Integer> neighbourhood : neighbourhoods) {
-                    if (neighbourhood.isEmpty()) {
-                        arrays.add(Nd4j.zeros(operators.length * prevEmbedding.columns()));
+                for (Direction neighbourhood : neighbourhoods) {
+                    if (neighbourhoodIndex.degree(nodeId, neighbourhood) == 0) {
+                        arrays.add(Nd4j.zeros(operators.length * ndPrevEmbedding.columns()));
                     } else {
-                        final INDArray neighbourhoodFeatures = prevEmbedding.getRows(ArrayUtils.toPrimitive(neighbourhood.toArray(new Integer[0])));
+                        final INDArray neighbourhoodFeatures = ndPrevEmbedding.getRows(neighbourhoodIndex.neighbours(nodeId, neighbourhood));
                         for (RelOperator operator : operators) {
-                            final INDArray opResult = operator.op(neighbourhoodFeatures, prevEmbedding.getRow(nodeId));
+                            final INDArray opResult = operator.op(neighbourhoodFeatures, ndPrevEmbedding.getRow(nodeId));
                             arrays.add(opResult);
                         }
                     }
                 }
 
                 final INDArray nodeFeatures = Nd4j.hstack(arrays);
-                embedding.putRow(nodeId, nodeFeatures);
+                for (int column = 0; column < nodeFeatures.columns(); column++) {
+                    embedding.set(nodeId, column, nodeFeatures.getDouble(column));
+                }
 
 
             }
         }
     }
 
-    public class Result {
-        public final long nodeId;
+    /**
+     * evaluates sum, hadamard, max, mean, rbf and l1Norm in one pass over the neighbours
+     * of each feature column and writes the results directly into the columns of the new layer,
+     * registered operators get the values gathered in that pass
+     */
+    private class FusedOpsTask implements NodeBatches.BatchConsumer {
 
-        public final List<Double> embedding;
+        private final int[] slots;
+        private final DeepGLOperator[] registered;
 
-        public Result(long nodeId, INDArray ndEmbedding) {
-            this.nodeId = nodeId;
+        FusedOpsTask(int[] slots) {
+            this.slots = slots;
+            this.registered = new DeepGLOperator[slots.length];
+            for (int op = 0; op < slots.length; op++) {
+                if (slots[op] == CUSTOM) {
+                    registered[op] = ((RegisteredOperator) operators[op]).operator;
+                }
+            }
+        }
+
+        @Override
+        public void accept(int from, int to) {
+            final int[] targets = neighbourhoodIndex.targets();
+            final int prevColumns = prevEmbedding.columns();
+            final boolean gather = Arrays.stream(slots).anyMatch(slot -> slot == CUSTOM);
+            double[] neighbourValues = new double[0];
+            // column by column, so the neighbour reads of a batch stay within one column of the previous layer
+            for (int column = 0; column < prevColumns && running(); column++) {
+                final FeatureMatrix.Column values = prevEmbedding.column(column);
+                for (int nb = 0; nb < neighbourhoods.length; nb++) {
+                    final Direction neighbourhood = neighbourhoods[nb];
+                    final int outColumn = nb * slots.length * prevColumns + column;
+                    for (int nodeId = from; nodeId < to; nodeId++) {
+                        final int start = neighbourhoodIndex.start(nodeId, neighbourhood);
+                        final int end = neighbourhoodIndex.end(nodeId, neighbourhood);
+                        if (start == end) {
+                            // empty neighbourhoods keep their zeros
+                            continue;
+                        }
+
+                        final int degree = end - start;
+                        if (gather && neighbourValues.length < degree) {
+                            neighbourValues = new double[degree];
+                        }
+                        final double nodeValue = values.get(nodeId);
+
+                        double sum = 0, product = 1, max = Double.NEGATIVE_INFINITY, squaredDiff = 0, absDiff = 0;
+                        for (int i = start; i < end; i++) {
+                            final double value = values.get(targets[i]);
+                            final double diff = value - nodeValue;
+                            sum += value;
+                            product *= value;
+                            if (value > max) {
+                                max = value;
+                            }
+                            squaredDiff += diff * diff;
+                            absDiff += Math.abs(diff);
+                            if (gather) {
+                                neighbourValues[i - start] = value;
+                            }
+                        }
 
-            double[] row = new double[ndEmbedding.size(1)];
-            for (int columnIndex = 0; columnIndex < ndEmbedding.size(1); columnIndex++) {
-                row[columnIndex] = ndEmbedding.getDouble(columnIndex);
+                        for (int op = 0; op < slots.length; op++) {
+                            final double result;
+                            switch (slots[op]) {
+                                case SUM:
+                                    result = sum;
+                                    break;
+                                case HADAMARD:
+                                    result = product;
+                                    break;
+                                case MAX:
+                                    result = max;
+                                    break;
+                                case MEAN:
+                                    result = sum / degree;
+                                    break;
+                                case RBF:
+                                    result = Math.exp(squaredDiff / (-RBF_SIGMA * RBF_SIGMA));
+                                    break;
+                                case L1_NORM:
+                                    result = absDiff;
+                                    break;
+                                case CUSTOM:
+                                    result = registered[op].apply(nodeValue, neighbourValues, degree);
+                                    break;
+                                default:
+                                    throw new IllegalStateException("Unknown fused operator slot " + slots[op]);
+                            }
+                            embedding.set(nodeId, outColumn + op * prevColumns, result);
+                        }
+                    }
+                }
             }
-            this.embedding = Arrays.asList(ArrayUtils.toObject(row));
+        }
+    }
+
+    /**
+     * evaluates the operators with the {@link SparseOperators} kernels on every column block
+     * of a batch of nodes, reading the gathered row-major blocks of the previous layer
+     */
+    private class MatrixOpsTask implements NodeBatches.BatchConsumer {
+
+        private final int[] slots;
+        private final double[][] blocks;
+
+        MatrixOpsTask(int[] slots, double[][] blocks) {
+            this.slots = slots;
+            this.blocks = blocks;
+        }
+
+        @Override
+        public void accept(int from, int to) {
+            final int prevColumns = prevEmbedding.columns();
+            final double[] y = new double[Math.multiplyExact(to - from, MATRIX_BLOCK_WIDTH)];
+            for (int block = 0; block < blocks.length && running(); block++) {
+                final int blockStart = block * MATRIX_BLOCK_WIDTH;
+                final int width = Math.min(MATRIX_BLOCK_WIDTH, prevColumns - blockStart);
+
+                for (int nb = 0; nb < neighbourhoods.length; nb++) {
+                    for (int op = 0; op < slots.length; op++) {
+                        apply(slots[op], neighbourhoods[nb], blocks[block], width, from, to, y);
+                        final int outColumn = (nb * slots.length + op) * prevColumns + blockStart;
+                        for (int f = 0; f < width; f++) {
+                            final FeatureMatrix.Column column = embedding.column(outColumn + f);
+                            for (int node = from; node < to; node++) {
+                                column.set(node, y[(node - from) * width + f]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void apply(int slot, Direction neighbourhood, double[] x, int width, int from, int to, double[] y) {
+            switch (slot) {
+                case SUM:
+                    SparseOperators.sum(neighbourhoodIndex, neighbourhood, x, width, from, to, y);
+                    break;
+                case HADAMARD:
+                    SparseOperators.hadamard(neighbourhoodIndex, neighbourhood, x, width, from, to, y);
+                    break;
+                case MAX:
+                    SparseOperators.max(neighbourhoodIndex, neighbourhood, x, width, from, to, y);
+                    break;
+                case MEAN:
+                    SparseOperators.mean(neighbourhoodIndex, neighbourhood, x, width, from, to, y);
+                    break;
+                case RBF:
+                    SparseOperators.rbf(neighbourhoodIndex, neighbourhood, x, width, from, to, y, RBF_SIGMA);
+                    break;
+                case L1_NORM:
+                    SparseOperators.l1Norm(neighbourhoodIndex, neighbourhood, x, width, from, to, y);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown matrix operator slot " + slot);
+            }
+        }
+    }
+
+    public static class Result {
+        public final long nodeId;
+
+        // double[] or float[], returned to Cypher as a list without boxing every value
+        public final Object embedding;
+
+        public Result(long nodeId, Object row) {
+            this.nodeId = nodeId;
+            this.embedding = row;
         }
 
     }
@@ -587,7 +1145,59 @@ public class DeepGL extends Algorithm<DeepGL> {
     };
 
     RelOperator[] operators = new RelOperator[]{sum, hadamard, max, mean, rbf, l1Norm};
-//    RelOperator[] operators = new RelOperator[]{sum};
+
+    /**
+     * a {@link DeepGLOperator} applied column by column in the ndarray mode, the matrix form applies it
+     * to the neighbours of every row of the adjacency matrix
+     */
+    static class RegisteredOperator implements RelOperator {
+
+        private final DeepGLOperator operator;
+
+        RegisteredOperator(DeepGLOperator operator) {
+            this.operator = operator;
+        }
+
+        @Override
+        public INDArray ndOp(INDArray features, INDArray adjacencyMatrix) {
+            INDArray[] rows = new INDArray[adjacencyMatrix.rows()];
+            for (int node = 0; node < adjacencyMatrix.rows(); node++) {
+                int finalNode = node;
+                int[] indexes = IntStream.range(0, adjacencyMatrix.columns())
+                        .filter(neighbour -> adjacencyMatrix.getDouble(finalNode, neighbour) != 0)
+                        .toArray();
+
+                rows[node] = indexes.length > 0
+                        ? op(features.getRows(indexes), features.getRow(node))
+                        : Nd4j.zeros(features.columns());
+            }
+            return Nd4j.vstack(rows);
+        }
+
+        @Override
+        public INDArray op(INDArray neighbourhoodFeatures, INDArray nodeFeature) {
+            final int degree = neighbourhoodFeatures.rows();
+            final double[] neighbourValues = new double[degree];
+            final INDArray result = Nd4j.zeros(neighbourhoodFeatures.columns());
+            for (int column = 0; column < neighbourhoodFeatures.columns(); column++) {
+                for (int row = 0; row < degree; row++) {
+                    neighbourValues[row] = neighbourhoodFeatures.getDouble(row, column);
+                }
+                result.putScalar(column, operator.apply(nodeFeature.getDouble(column), neighbourValues, degree));
+            }
+            return result;
+        }
+
+        @Override
+        public double defaultVal() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return operator.name();
+        }
+    }
 
 
 }
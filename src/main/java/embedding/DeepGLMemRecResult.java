@@ -0,0 +1,20 @@
+package embedding;
+
+
+import org.neo4j.graphalgo.core.utils.paged.AllocationTracker;
+
+public class DeepGLMemRecResult {
+    public final long layer;
+    public final long features;
+    public final long heapBytes;
+    public final long offHeapBytes;
+    public final String requiredMemory;
+
+    public DeepGLMemRecResult(DeepGLMemoryEstimation.Estimate estimate) {
+        this.layer = estimate.layer;
+        this.features = estimate.features;
+        this.heapBytes = estimate.heapBytes;
+        this.offHeapBytes = estimate.offHeapBytes;
+        this.requiredMemory = AllocationTracker.humanReadable(estimate.totalBytes());
+    }
+}
@@ -0,0 +1,167 @@
+package embedding;
+
+import org.neo4j.graphalgo.core.utils.paged.MemoryUsage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the peak memory DeepGL needs while it computes a layer.
+ * <p>
+ * A layer holds the previous layer, the operator results, the diffusion copy and the
+ * diffusion scratch buffer at the same time, plus the per-thread binning buffers and the
+ * mode specific copies of the previous layer. The loaded graph itself is not included, neither
+ * are mapped columns, which live in the page cache.
+ */
+public class DeepGLMemoryEstimation {
+
+    public static final class Estimate {
+        public final int layer;
+        // number of features the layer produces before pruning
+        public final long features;
+        public final long heapBytes;
+        public final long offHeapBytes;
+
+        Estimate(int layer, long features, long heapBytes, long offHeapBytes) {
+            this.layer = layer;
+            this.features = features;
+            this.heapBytes = heapBytes;
+            this.offHeapBytes = offHeapBytes;
+        }
+
+        public long totalBytes() {
+            return add(heapBytes, offHeapBytes);
+        }
+    }
+
+    private final int nodeCount;
+    private final long relationshipCount;
+    private final int operators;
+    private final int neighbourhoods;
+    private final int concurrency;
+    private final DeepGL.Mode mode;
+    private final FeatureMatrix.Storage storage;
+    private final FeatureMatrix.Precision precision;
+
+    public DeepGLMemoryEstimation(long nodeCount, long relationshipCount, int operators, int neighbourhoods, int concurrency, DeepGL.Mode mode, FeatureMatrix.Storage storage) {
+        this(nodeCount, relationshipCount, operators, neighbourhoods, concurrency, mode, storage, FeatureMatrix.Precision.DOUBLE);
+    }
+
+    public DeepGLMemoryEstimation(long nodeCount, long relationshipCount, int operators, int neighbourhoods, int concurrency, DeepGL.Mode mode, FeatureMatrix.Storage storage, FeatureMatrix.Precision precision) {
+        this.nodeCount = Math.toIntExact(nodeCount);
+        this.relationshipCount = relationshipCount;
+        this.operators = operators;
+        this.neighbourhoods = neighbourhoods;
+        this.concurrency = concurrency;
+        this.mode = mode;
+        this.storage = storage;
+        this.precision = precision;
+    }
+
+    /**
+     * @return the base layer of degrees and node properties, including the neighbourhood index
+     */
+    public Estimate base(int baseFeatures) {
+        long heap = neighbourhoodIndexBytes();
+        long offHeap = 0;
+        if (storage == FeatureMatrix.Storage.HEAP) {
+            heap = add(heap, columnBytes(baseFeatures));
+        } else if (storage == FeatureMatrix.Storage.OFF_HEAP) {
+            offHeap = columnBytes(baseFeatures);
+        }
+        heap = add(heap, binningBytes(baseFeatures));
+        return new Estimate(0, baseFeatures, heap, offHeap);
+    }
+
+    /**
+     * @param layer        the layer number
+     * @param prevFeatures number of features of the previous layer after pruning
+     * @return the peak while the layer is computed, before it is pruned
+     */
+    public Estimate layer(int layer, long prevFeatures) {
+        final long width = multiply((long) neighbourhoods * operators, prevFeatures);
+        final long features = multiply(2, width);
+
+        // previous layer, operator results, diffusion copy and scratch buffer
+        final long columns = add(prevFeatures, multiply(3, width));
+        long heap = neighbourhoodIndexBytes();
+        long offHeap = 0;
+        if (storage == FeatureMatrix.Storage.HEAP) {
+            heap = add(heap, columnBytes(columns));
+        } else if (storage == FeatureMatrix.Storage.OFF_HEAP) {
+            offHeap = columnBytes(columns);
+        }
+
+        switch (mode) {
+            case NDARRAY:
+                // the previous layer as a double[] plus the INDArray created from it
+                heap = add(heap, multiply(prevFeatures, (long) nodeCount * Double.BYTES));
+                offHeap = add(offHeap, multiply(prevFeatures, (long) nodeCount * Double.BYTES));
+                break;
+            case MATRIX:
+                // the previous layer as row-major blocks
+                heap = add(heap, multiply(prevFeatures, (long) nodeCount * Double.BYTES));
+                break;
+            default:
+                break;
+        }
+
+        heap = add(heap, binningBytes(features));
+        // disjoint set over all features while pruning
+        heap = add(heap, MemoryUsage.sizeOfIntArray((int) Math.min(Integer.MAX_VALUE, add(prevFeatures, features))));
+        return new Estimate(layer, features, heap, offHeap);
+    }
+
+    /**
+     * @return one estimate per layer, assuming that pruning removes no features; pruning keeps all features
+     * of the previous layer, so every layer gets those and the new features of the layer before it
+     */
+    public List<Estimate> layers(int baseFeatures, int iterations) {
+        final List<Estimate> estimates = new ArrayList<>();
+        estimates.add(base(baseFeatures));
+        long prevFeatures = baseFeatures;
+        for (int layer = 1; layer <= iterations; layer++) {
+            final Estimate estimate = layer(layer, prevFeatures);
+            estimates.add(estimate);
+            prevFeatures = add(prevFeatures, estimate.features);
+        }
+        return estimates;
+    }
+
+    private long neighbourhoodIndexBytes() {
+        return add(MemoryUsage.sizeOfIntArray(nodeCount + 1) + MemoryUsage.sizeOfIntArray(nodeCount),
+                multiply(2 * Integer.BYTES, relationshipCount));
+    }
+
+    /**
+     * raw columns, a byte embedding is computed in floats and only binned columns are stored as bytes
+     */
+    private long columnBytes(long columns) {
+        final boolean doubles = precision == FeatureMatrix.Precision.DOUBLE;
+        final long perColumn = storage == FeatureMatrix.Storage.HEAP
+                ? (doubles ? MemoryUsage.sizeOfDoubleArray(nodeCount) : MemoryUsage.sizeOfFloatArray(nodeCount))
+                : (long) nodeCount * (doubles ? Double.BYTES : Float.BYTES);
+        return multiply(columns, perColumn);
+    }
+
+    private long binningBytes(long columns) {
+        final long threads = Math.min(concurrency, columns);
+        return multiply(threads, 2 * MemoryUsage.sizeOfDoubleArray(nodeCount) + MemoryUsage.sizeOfIntArray(nodeCount));
+    }
+
+    private static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long add(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package embedding;
+
+import org.neo4j.graphalgo.api.Graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The features learned by a DeepGL run together with everything needed to evaluate
+ * them again for single nodes: the bin boundaries of every feature that gets binned,
+ * the number of diffusion steps of every diffused feature and the node property
+ * behind every property feature.
+ * <p>
+ * Features are keyed by their expression, so equal chains share their bins and
+ * diffusion steps.
+ * <p>
+ * Models are kept in memory under a name and can be serialized with {@link #data()}
+ * and restored with {@link #load(String, Object)}.
+ */
+public class DeepGLModel implements Serializable {
+
+    // 2: the undirected, sampling and precision fields were added
+    private static final long serialVersionUID = 2L;
+
+    private static ConcurrentHashMap<String, DeepGLModel> models = new ConcurrentHashMap<>();
+
+    private final Pruning.Feature[] features;
+    private final Map<Pruning.Feature, double[]> binUpperBounds;
+    private final Map<Pruning.Feature, Integer> diffusionSteps;
+    // base feature name -> node property key
+    private final Map<String, String> propertyKeys;
+    // whether the model was learned on an undirected neighbourhood index
+    private final boolean undirected;
+    // neighbour sampling of the index the model was learned on, 0 if it was not sampled
+    private final int maxNeighbours;
+    private final long samplingSeed;
+    // the type the embedding was written as
+    private final FeatureMatrix.Precision precision;
+
+    DeepGLModel(Pruning.Feature[] features, Map<Pruning.Feature, double[]> binUpperBounds, Map<Pruning.Feature, Integer> diffusionSteps, Map<String, String> propertyKeys, boolean undirected, int maxNeighbours, long samplingSeed, FeatureMatrix.Precision precision) {
+        this.features = features;
+        this.precision = precision;
+        this.undirected = undirected;
+        this.maxNeighbours = maxNeighbours;
+        this.samplingSeed = samplingSeed;
+        this.binUpperBounds = new HashMap<>();
+        this.diffusionSteps = new HashMap<>();
+        this.propertyKeys = new LinkedHashMap<>(propertyKeys);
+
+        // only keep what the chains of the final features need
+        final Deque<Pruning.Feature> queue = new ArrayDeque<>();
+        Collections.addAll(queue, features);
+        while (!queue.isEmpty()) {
+            final Pruning.Feature feature = queue.pop();
+            if (binUpperBounds.containsKey(feature)) {
+                this.binUpperBounds.put(feature, binUpperBounds.get(feature));
+            }
+            if (diffusionSteps.containsKey(feature)) {
+                this.diffusionSteps.put(feature, diffusionSteps.get(feature));
+            }
+            if (feature.getPrev() != null) {
+                queue.push(feature.getPrev());
+            }
+        }
+    }
+
+    static void store(String name, DeepGLModel model) {
+        models.put(name, model);
+    }
+
+    static boolean remove(String name) {
+        return models.remove(name) != null;
+    }
+
+    static DeepGLModel load(String name, Object data) {
+        final DeepGLModel model;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream((byte[]) data))) {
+            model = (DeepGLModel) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalArgumentException("data is invalid, cannot load DeepGL model " + name, e);
+        }
+        store(name, model);
+        return model;
+    }
+
+    static DeepGLModel from(String name) {
+        final DeepGLModel model = models.get(name);
+        if (model == null) {
+            throw new IllegalArgumentException("No DeepGL model " + name);
+        }
+        return model;
+    }
+
+    /**
+     * @return the java serialization of the model
+     */
+    public byte[] data() {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(this);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("DeepGL model cannot be serialized", e);
+        }
+    }
+
+    public Pruning.Feature[] features() {
+        return features;
+    }
+
+    public double[] binUpperBounds(Pruning.Feature feature) {
+        final double[] upperBounds = binUpperBounds.get(feature);
+        if (upperBounds == null) {
+            throw new IllegalStateException("No bins for feature " + feature);
+        }
+        return upperBounds;
+    }
+
+    public int diffusionSteps(Pruning.Feature feature) {
+        return diffusionSteps.getOrDefault(feature, 0);
+    }
+
+    /**
+     * @return the node property of a base feature or null if it is a degree
+     */
+    public String propertyKey(String featureName) {
+        return propertyKeys.get(featureName);
+    }
+
+    public Map<String, String> propertyKeys() {
+        return propertyKeys;
+    }
+
+    public boolean isUndirected() {
+        return undirected;
+    }
+
+    public FeatureMatrix.Precision precision() {
+        return precision;
+    }
+
+    /**
+     * @return the neighbourhoods of the graph in the form the model was learned on
+     */
+    public NeighbourhoodIndex index(Graph graph, ExecutorService executorService, int concurrency) {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, executorService, concurrency);
+        if (undirected) {
+            index = index.toUndirected(index.isSymmetric(executorService, concurrency), executorService, concurrency);
+        }
+        if (maxNeighbours > 0) {
+            index = index.sample(maxNeighbours, samplingSeed, executorService, concurrency);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,262 @@
+package embedding;
+
+import org.neo4j.graphalgo.core.heavyweight.HeavyGraph;
+import org.neo4j.graphdb.Direction;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Evaluates the features of a {@link DeepGLModel} for single nodes.
+ * <p>
+ * Every feature is computed from the binned values of its previous feature in the
+ * neighbourhood of the node, recursively down to the degrees and node properties, so only
+ * the k-hop cone of the requested nodes is visited. Binning uses the bin boundaries learned
+ * by the full run instead of ranking all nodes again. Computed values are cached per feature
+ * expression, so sub-expressions shared by several features are evaluated once.
+ * <p>
+ * To evaluate a model for all nodes, {@link DeepGLPlan} is faster.
+ */
+public class DeepGLModelEvaluator {
+
+    private static final double RBF_SIGMA = 16;
+    private static final String[] NEIGHBOURHOODS = {"_out_neighbourhood", "_in_neighbourhood", "_both_neighbourhood"};
+    private static final Direction[] DIRECTIONS = {Direction.OUTGOING, Direction.INCOMING, Direction.BOTH};
+
+    private final DeepGLModel model;
+    private final HeavyGraph graph;
+    private final NeighbourhoodIndex index;
+
+    // binned values per feature, and raw values per feature and diffusion step
+    private final Map<Pruning.Feature, NodeValues> binned = new HashMap<>();
+    private final Map<Pruning.Feature, List<NodeValues>> diffused = new HashMap<>();
+
+    public DeepGLModelEvaluator(DeepGLModel model, HeavyGraph graph, NeighbourhoodIndex index) {
+        this.model = model;
+        this.graph = graph;
+        this.index = index;
+    }
+
+    /**
+     * @return the binned values of all model features for the node
+     */
+    public double[] row(int nodeId) {
+        final Pruning.Feature[] features = model.features();
+        final double[] row = new double[features.length];
+        for (int i = 0; i < features.length; i++) {
+            row[i] = binned(features[i], nodeId);
+        }
+        return row;
+    }
+
+    /**
+     * @return all nodes within the radius of the deepest feature around the changed nodes, in ascending order
+     */
+    public int[] affectedNodes(int[] changedNodes) {
+        int radius = 0;
+        for (Pruning.Feature feature : model.features()) {
+            radius = Math.max(radius, radius(feature));
+        }
+
+        final BitSet visited = new BitSet(index.nodeCount());
+        int[] frontier = changedNodes.clone();
+        for (int nodeId : frontier) {
+            visited.set(nodeId);
+        }
+        final int[] targets = index.targets();
+        for (int hop = 0; hop < radius && frontier.length > 0; hop++) {
+            final BitSet next = new BitSet(index.nodeCount());
+            for (int nodeId : frontier) {
+                for (int i = index.start(nodeId, Direction.BOTH), end = index.end(nodeId, Direction.BOTH); i < end; i++) {
+                    if (!visited.get(targets[i])) {
+                        next.set(targets[i]);
+                    }
+                }
+            }
+            visited.or(next);
+            frontier = next.stream().toArray();
+        }
+        return visited.stream().toArray();
+    }
+
+    private int radius(Pruning.Feature feature) {
+        if (feature.getPrev() == null) {
+            return 0;
+        }
+        final int steps = "diffuse".equals(feature.getName()) ? model.diffusionSteps(feature) : 1;
+        return steps + radius(feature.getPrev());
+    }
+
+    private double binned(Pruning.Feature feature, int nodeId) {
+        final NodeValues values = binned.computeIfAbsent(feature, f -> new NodeValues(index.nodeCount()));
+        if (values.contains(nodeId)) {
+            return values.get(nodeId);
+        }
+        final double value = Binning.bin(raw(feature, nodeId), model.binUpperBounds(feature));
+        values.put(nodeId, value);
+        return value;
+    }
+
+    private double raw(Pruning.Feature feature, int nodeId) {
+        final String name = feature.getName();
+        if (feature.getPrev() == null) {
+            return base(name, model, graph, index, nodeId);
+        }
+        if ("diffuse".equals(name)) {
+            return diffused(feature.getPrev(), model.diffusionSteps(feature), nodeId);
+        }
+        final int nb = neighbourhood(feature);
+        final Pruning.Feature prev = feature.getPrev();
+        return operator(operatorName(feature, nb), DIRECTIONS[nb], index, nodeId, node -> binned(prev, node));
+    }
+
+    static double base(String name, DeepGLModel model, HeavyGraph graph, NeighbourhoodIndex index, int nodeId) {
+        switch (name) {
+            case "IN_DEGREE":
+                return index.originalDegree(nodeId, Direction.INCOMING);
+            case "OUT_DEGREE":
+                return index.originalDegree(nodeId, Direction.OUTGOING);
+            case "BOTH_DEGREE":
+                return index.originalDegree(nodeId, Direction.BOTH);
+            default:
+                final String propertyKey = model.propertyKey(name);
+                if (propertyKey == null) {
+                    throw new IllegalArgumentException("Unknown base feature " + name);
+                }
+                return graph.nodeProperties(propertyKey).get(nodeId);
+        }
+    }
+
+    /**
+     * @return the index of the neighbourhood of an operator feature in {@link #DIRECTIONS}
+     */
+    static int neighbourhood(Pruning.Feature feature) {
+        for (int nb = 0; nb < NEIGHBOURHOODS.length; nb++) {
+            if (feature.getName().endsWith(NEIGHBOURHOODS[nb])) {
+                return nb;
+            }
+        }
+        throw new IllegalArgumentException("Unknown feature " + feature);
+    }
+
+    static Direction direction(int neighbourhood) {
+        return DIRECTIONS[neighbourhood];
+    }
+
+    static String operatorName(Pruning.Feature feature, int neighbourhood) {
+        final String name = feature.getName();
+        return name.substring(0, name.length() - NEIGHBOURHOODS[neighbourhood].length());
+    }
+
+    /**
+     * the raw feature after the given number of mean steps over the both neighbourhood, raw features are not binned
+     */
+    private double diffused(Pruning.Feature feature, int steps, int nodeId) {
+        if (steps == 0) {
+            return raw(feature, nodeId);
+        }
+        final List<NodeValues> levels = diffused.computeIfAbsent(feature, f -> new ArrayList<>());
+        while (levels.size() < steps) {
+            levels.add(new NodeValues(index.nodeCount()));
+        }
+        final NodeValues values = levels.get(steps - 1);
+        if (values.contains(nodeId)) {
+            return values.get(nodeId);
+        }
+
+        final int start = index.start(nodeId, Direction.BOTH);
+        final int end = index.end(nodeId, Direction.BOTH);
+        double value = 0;
+        if (start != end) {
+            final int[] targets = index.targets();
+            for (int i = start; i < end; i++) {
+                value += diffused(feature, steps - 1, targets[i]);
+            }
+            value /= end - start;
+        }
+        values.put(nodeId, value);
+        return value;
+    }
+
+    /**
+     * applies a built-in or registered operator to the values of the neighbours of a node, with the same results as the fused kernels
+     */
+    static double operator(String operator, Direction direction, NeighbourhoodIndex index, int nodeId, IntToDoubleFunction values) {
+        final int start = index.start(nodeId, direction);
+        final int end = index.end(nodeId, direction);
+        if (start == end) {
+            return 0;
+        }
+        final int[] targets = index.targets();
+        final double nodeValue = values.applyAsDouble(nodeId);
+        if (!DeepGLOperators.BUILT_IN.contains(operator)) {
+            final DeepGLOperator registered = DeepGLOperators.custom(operator);
+            if (registered == null) {
+                throw new IllegalArgumentException("Unknown operator " + operator + ", expected one of " + String.join(", ", DeepGLOperators.names()));
+            }
+            final double[] neighbourValues = new double[end - start];
+            for (int i = start; i < end; i++) {
+                neighbourValues[i - start] = values.applyAsDouble(targets[i]);
+            }
+            return registered.apply(nodeValue, neighbourValues, end - start);
+        }
+        double sum = 0, product = 1, max = Double.NEGATIVE_INFINITY, squaredDiff = 0, absDiff = 0;
+        for (int i = start; i < end; i++) {
+            final double value = values.applyAsDouble(targets[i]);
+            final double diff = value - nodeValue;
+            sum += value;
+            product *= value;
+            if (value > max) {
+                max = value;
+            }
+            squaredDiff += diff * diff;
+            absDiff += Math.abs(diff);
+        }
+        switch (operator) {
+            case "sum":
+                return sum;
+            case "hadamard":
+                return product;
+            case "max":
+                return max;
+            case "mean":
+                return sum / (end - start);
+            case "rbf":
+                return Math.exp(squaredDiff / (-RBF_SIGMA * RBF_SIGMA));
+            case "l1Norm":
+                return absDiff;
+            default:
+                throw new IllegalStateException("Unknown built-in operator " + operator);
+        }
+    }
+
+    /**
+     * the values of one feature computed so far, dense over all nodes like the columns of a {@link FeatureMatrix}
+     */
+    private static final class NodeValues {
+        private final double[] values;
+        private final BitSet computed;
+
+        NodeValues(int nodeCount) {
+            this.values = new double[nodeCount];
+            this.computed = new BitSet(nodeCount);
+        }
+
+        boolean contains(int nodeId) {
+            return computed.get(nodeId);
+        }
+
+        double get(int nodeId) {
+            return values[nodeId];
+        }
+
+        void put(int nodeId, double value) {
+            values[nodeId] = value;
+            computed.set(nodeId);
+        }
+    }
+}
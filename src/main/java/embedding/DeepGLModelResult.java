@@ -0,0 +1,20 @@
+package embedding;
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class DeepGLModelResult {
+    public final String model;
+    public final long embeddingSize;
+    public final List<String> features;
+
+    public DeepGLModelResult(String model, DeepGLModel deepGLModel) {
+        this.model = model;
+        this.embeddingSize = deepGLModel.features().length;
+        this.features = Arrays.stream(deepGLModel.features())
+                .map(Pruning.Feature::toString)
+                .collect(Collectors.toList());
+    }
+}
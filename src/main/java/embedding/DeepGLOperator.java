@@ -0,0 +1,26 @@
+package embedding;
+
+/**
+ * A relational operator that DeepGL can apply to the neighbourhoods of a node in addition
+ * to the built-in sum, hadamard, max, mean, rbf and l1Norm.
+ * <p>
+ * Implementations are registered with {@link DeepGLOperators#register(DeepGLOperator)} or
+ * listed in {@code META-INF/services/embedding.DeepGLOperator} on the plugin classpath, and
+ * are selected by name with the {@code operators} config. They must be stateless, they are
+ * called concurrently.
+ */
+public interface DeepGLOperator {
+
+    /**
+     * @return the name used in the {@code operators} config and in the feature names
+     */
+    String name();
+
+    /**
+     * @param nodeValue       the feature value of the node
+     * @param neighbourValues the feature values of the neighbours, only the first {@code degree} entries are valid
+     * @param degree          the number of neighbours, at least 1; empty neighbourhoods are 0 without calling the operator
+     * @return the feature value of the node for this operator
+     */
+    double apply(double nodeValue, double[] neighbourValues, int degree);
+}
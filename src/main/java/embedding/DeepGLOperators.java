@@ -0,0 +1,66 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the operator names of the {@code operators} config to built-in or registered operators.
+ */
+public final class DeepGLOperators {
+
+    // in the order of their fused and matrix kernel slots
+    public static final List<String> BUILT_IN = Collections.unmodifiableList(
+            Arrays.asList("sum", "hadamard", "max", "mean", "rbf", "l1Norm"));
+
+    private static final Map<String, DeepGLOperator> custom = new ConcurrentHashMap<>();
+
+    static {
+        for (DeepGLOperator operator : ServiceLoader.load(DeepGLOperator.class, DeepGLOperator.class.getClassLoader())) {
+            register(operator);
+        }
+    }
+
+    private DeepGLOperators() {}
+
+    /**
+     * makes an operator available under its name, replacing an earlier one of the same name
+     */
+    public static void register(DeepGLOperator operator) {
+        if (BUILT_IN.contains(operator.name())) {
+            throw new IllegalArgumentException("Cannot replace the built-in operator " + operator.name());
+        }
+        custom.put(operator.name(), operator);
+    }
+
+    /**
+     * @return the registered operator or null for built-in and unknown names
+     */
+    static DeepGLOperator custom(String name) {
+        return custom.get(name);
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the names is neither built-in nor registered
+     */
+    static void validate(List<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("At least one operator is required");
+        }
+        for (String name : names) {
+            if (!BUILT_IN.contains(name) && !custom.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown operator " + name + ", expected one of " + String.join(", ", names()));
+            }
+        }
+    }
+
+    static List<String> names() {
+        final List<String> names = new ArrayList<>(BUILT_IN);
+        names.addAll(custom.keySet());
+        return names;
+    }
+}
@@ -0,0 +1,213 @@
+package embedding;
+
+import org.neo4j.graphalgo.core.heavyweight.HeavyGraph;
+import org.neo4j.graphalgo.core.utils.ParallelUtil;
+import org.neo4j.graphdb.Direction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The features of a {@link DeepGLModel} compiled into a sequence of column computations.
+ * <p>
+ * Every distinct sub-expression of the model becomes one step, ordered so that a step only
+ * reads steps before it. Steps shared by several features are computed once, and the columns
+ * of a step are released as soon as its last reader has run.
+ */
+public class DeepGLPlan {
+
+    private enum Kind {BASE, OPERATOR, DIFFUSE}
+
+    private static final class Step {
+        final Pruning.Feature feature;
+        final Kind kind;
+        // step of the previous feature, -1 for base features
+        final int input;
+        // an operator reads the binned values of its input, a diffusion the raw values
+        boolean binnedRead;
+        boolean rawRead;
+        int lastRead = -1;
+
+        Step(Pruning.Feature feature, Kind kind, int input) {
+            this.feature = feature;
+            this.kind = kind;
+            this.input = input;
+        }
+    }
+
+    private final DeepGLModel model;
+    private final List<Step> steps = new ArrayList<>();
+    // output column -> step
+    private final int[] outputs;
+
+    private DeepGLPlan(DeepGLModel model) {
+        this.model = model;
+        final Map<Pruning.Feature, Integer> compiled = new HashMap<>();
+        final Pruning.Feature[] features = model.features();
+        outputs = new int[features.length];
+        for (int i = 0; i < features.length; i++) {
+            outputs[i] = compile(features[i], compiled);
+        }
+    }
+
+    public static DeepGLPlan compile(DeepGLModel model) {
+        return new DeepGLPlan(model);
+    }
+
+    /**
+     * @return the number of distinct sub-expressions the plan computes
+     */
+    public int stepCount() {
+        return steps.size();
+    }
+
+    private int compile(Pruning.Feature feature, Map<Pruning.Feature, Integer> compiled) {
+        final Integer existing = compiled.get(feature);
+        if (existing != null) {
+            return existing;
+        }
+        final Step step;
+        if (feature.getPrev() == null) {
+            step = new Step(feature, Kind.BASE, -1);
+        } else {
+            final int input = compile(feature.getPrev(), compiled);
+            final Kind kind = "diffuse".equals(feature.getName()) ? Kind.DIFFUSE : Kind.OPERATOR;
+            step = new Step(feature, kind, input);
+            final Step inputStep = steps.get(input);
+            if (kind == Kind.DIFFUSE) {
+                inputStep.rawRead = true;
+            } else {
+                inputStep.binnedRead = true;
+            }
+            inputStep.lastRead = steps.size();
+        }
+        steps.add(step);
+        compiled.put(feature, steps.size() - 1);
+        return steps.size() - 1;
+    }
+
+    /**
+     * evaluates the plan for all nodes of the graph
+     *
+     * @return the binned values of the model features, one column per feature
+     */
+    public FeatureMatrix evaluate(HeavyGraph graph, NeighbourhoodIndex index, ExecutorService executorService, int concurrency) {
+        final int nodeCount = index.nodeCount();
+        final int batchSize = ParallelUtil.adjustBatchSize(nodeCount, concurrency, 1024);
+        final int batches = ParallelUtil.threadSize(batchSize, nodeCount);
+
+        final double[][] raw = new double[steps.size()][];
+        final double[][] binned = new double[steps.size()][];
+        final FeatureMatrix result = FeatureMatrix.create(nodeCount, outputs.length, FeatureMatrix.Storage.HEAP);
+
+        for (int s = 0; s < steps.size(); s++) {
+            final Step step = steps.get(s);
+            final double[] values = new double[nodeCount];
+
+            switch (step.kind) {
+                case BASE:
+                    ParallelUtil.iterateParallel(executorService, batches, concurrency, batch -> {
+                        for (int nodeId = batch * batchSize, end = Math.min(nodeCount, nodeId + batchSize); nodeId < end; nodeId++) {
+                            values[nodeId] = DeepGLModelEvaluator.base(step.feature.getName(), model, graph, index, nodeId);
+                        }
+                    });
+                    break;
+                case OPERATOR:
+                    final double[] input = binned[step.input];
+                    final int nb = DeepGLModelEvaluator.neighbourhood(step.feature);
+                    final String operator = DeepGLModelEvaluator.operatorName(step.feature, nb);
+                    final Direction direction = DeepGLModelEvaluator.direction(nb);
+                    ParallelUtil.iterateParallel(executorService, batches, concurrency, batch -> {
+                        for (int nodeId = batch * batchSize, end = Math.min(nodeCount, nodeId + batchSize); nodeId < end; nodeId++) {
+                            values[nodeId] = DeepGLModelEvaluator.operator(operator, direction, index, nodeId, node -> input[node]);
+                        }
+                    });
+                    break;
+                case DIFFUSE:
+                    diffuse(raw[step.input], values, model.diffusionSteps(step.feature), index, executorService, concurrency, batchSize, batches);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown step " + step.kind);
+            }
+
+            if (step.binnedRead || isOutput(s)) {
+                final double[] upperBounds = model.binUpperBounds(step.feature);
+                final double[] bins = new double[nodeCount];
+                ParallelUtil.iterateParallel(executorService, batches, concurrency, batch -> {
+                    for (int nodeId = batch * batchSize, end = Math.min(nodeCount, nodeId + batchSize); nodeId < end; nodeId++) {
+                        bins[nodeId] = Binning.bin(values[nodeId], upperBounds);
+                    }
+                });
+                binned[s] = bins;
+                for (int column = 0; column < outputs.length; column++) {
+                    if (outputs[column] == s) {
+                        result.column(column).copyFrom(bins);
+                    }
+                }
+            }
+            if (step.rawRead) {
+                raw[s] = values;
+            }
+
+            // release the inputs nobody reads anymore
+            if (step.input != -1 && steps.get(step.input).lastRead == s) {
+                raw[step.input] = null;
+                binned[step.input] = null;
+            }
+            if (!step.binnedRead) {
+                binned[s] = null;
+            }
+        }
+        return result;
+    }
+
+    private boolean isOutput(int step) {
+        for (int output : outputs) {
+            if (output == step) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the mean of the both neighbourhood, repeated {@code iterations} times, 0 for nodes without neighbours
+     */
+    private static void diffuse(double[] source, double[] target, int iterations, NeighbourhoodIndex index,
+                                ExecutorService executorService, int concurrency, int batchSize, int batches) {
+        final int nodeCount = index.nodeCount();
+        if (iterations == 0) {
+            System.arraycopy(source, 0, target, 0, nodeCount);
+            return;
+        }
+        final int[] targets = index.targets();
+        double[] current = source;
+        // ping-pong buffers, the last iteration writes into target
+        double[] next = iterations % 2 == 1 ? target : new double[nodeCount];
+        double[] other = next == target ? new double[nodeCount] : target;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            final double[] read = current;
+            final double[] write = next;
+            ParallelUtil.iterateParallel(executorService, batches, concurrency, batch -> {
+                for (int nodeId = batch * batchSize, end = Math.min(nodeCount, nodeId + batchSize); nodeId < end; nodeId++) {
+                    final int start = index.start(nodeId, Direction.BOTH);
+                    final int stop = index.end(nodeId, Direction.BOTH);
+                    double value = 0;
+                    if (start != stop) {
+                        for (int i = start; i < stop; i++) {
+                            value += read[targets[i]];
+                        }
+                        value /= stop - start;
+                    }
+                    write[nodeId] = value;
+                }
+            });
+            current = next;
+            next = other;
+            other = current;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package embedding;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.neo4j.graphalgo.PropertyMapping;
 import org.neo4j.graphalgo.core.GraphLoader;
 import org.neo4j.graphalgo.core.ProcedureConfiguration;
@@ -9,17 +8,23 @@ import org.neo4j.graphalgo.core.utils.Pools;
 import org.neo4j.graphalgo.core.utils.ProgressLogger;
 import org.neo4j.graphalgo.core.utils.ProgressTimer;
 import org.neo4j.graphalgo.core.utils.TerminationFlag;
-import org.neo4j.graphalgo.core.write.Exporter;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.TokenRead;
 import org.neo4j.kernel.api.KernelTransaction;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
 import org.neo4j.procedure.Mode;
 import org.neo4j.procedure.Name;
 import org.neo4j.procedure.Procedure;
-import org.neo4j.values.storable.INDArrayPropertyTranslator;
+import org.neo4j.procedure.UserFunction;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -71,28 +76,43 @@ public class DeepGLProc {
 
         final TerminationFlag terminationFlag = TerminationFlag.wrap(transaction);
         DeepGL algo = new DeepGL(graph, Pools.DEFAULT, configuration.getConcurrency(), iterations, pruningLambda, diffusions)
+                .withOperators(operators(config))
+                .withNeighbourhoods(neighbourhoods(config))
+                .withUndirected(configuration.get("undirected", false))
+                .withNeighbourSampling(configuration.getInt("maxNeighbours", 0), configuration.getNumber("samplingSeed", 42L).longValue())
+                .withMode(DeepGL.Mode.parse(configuration.getString("mode", "fused")))
+                .withStorage(FeatureMatrix.Storage.parse(configuration.getString("storage", "heap")))
+                .withPrecision(FeatureMatrix.Precision.parse(configuration.getString("precision", "double")))
+                .withPruningHashing(pruningBands(configuration), configuration.getInt("pruningBandRows", 8))
+                .withDiffusionEpsilon(configuration.get("diffusionEpsilon", 0.0))
+                .withBatchSize(configuration.getInt("batchSize", 0))
+                .withMemoryBudget(configuration.getNumber("memoryBudget", Long.MAX_VALUE).longValue())
+                .withSpillDirectory(spillDirectory(configuration))
                 .withProgressLogger(ProgressLogger.wrap(log, "DeepGL"))
                 .withTerminationFlag(terminationFlag);
 
         builder.timeEval(algo::compute);
         graph.release();
 
-        INDArray embedding = algo.embedding();
+        FeatureMatrix embedding = algo.embedding();
         builder.withEmbeddingSize(embedding.columns());
         builder.withFeatures(algo.features());
         builder.withLayers(algo.numberOfLayers());
+        builder.withThreadMillis(algo.threadMillis());
+        builder.withNodeCost(algo.nodeCost());
+
+        configuration.getString("model").ifPresent(name -> DeepGLModel.store(name, algo.model()));
 
         if (configuration.isWriteFlag()) {
             builder.timeWrite(() -> {
                 final String writeProperty = configuration.getWriteProperty(DEFAULT_TARGET_PROPERTY);
-
                 builder.withWriteProperty(writeProperty);
 
-                Exporter.of(api, graph)
-                        .withLog(log)
-                        .parallel(Pools.DEFAULT, configuration.getConcurrency(), terminationFlag)
-                        .build()
-                        .write(writeProperty, embedding, new INDArrayPropertyTranslator());
+                new EmbeddingExporter(api, graph::toOriginalNodeId)
+                        .withBatchSize(configuration.getInt("writeBatchSize", EmbeddingExporter.DEFAULT_BATCH_SIZE))
+                        .withPrecision(embedding.precision())
+                        .parallel(Pools.DEFAULT, configuration.getInt("writeConcurrency", configuration.getConcurrency()), terminationFlag)
+                        .write(writeProperty, RowSource.of(embedding));
             });
         }
 
@@ -128,12 +148,225 @@ public class DeepGLProc {
                 iterations,
                 pruningLambda,
                 diffusions);
+        algo.withOperators(operators(config));
+        algo.withNeighbourhoods(neighbourhoods(config));
+        algo.withUndirected(configuration.get("undirected", false));
+        algo.withNeighbourSampling(configuration.getInt("maxNeighbours", 0), configuration.getNumber("samplingSeed", 42L).longValue());
+        algo.withMode(DeepGL.Mode.parse(configuration.getString("mode", "fused")));
+        algo.withStorage(FeatureMatrix.Storage.parse(configuration.getString("storage", "heap")));
+        algo.withPrecision(FeatureMatrix.Precision.parse(configuration.getString("precision", "double")));
+        algo.withPruningHashing(pruningBands(configuration), configuration.getInt("pruningBandRows", 8));
+        algo.withDiffusionEpsilon(configuration.get("diffusionEpsilon", 0.0));
+        algo.withBatchSize(configuration.getInt("batchSize", 0));
+        algo.withMemoryBudget(configuration.getNumber("memoryBudget", Long.MAX_VALUE).longValue());
+        algo.withSpillDirectory(spillDirectory(configuration));
         algo.withProgressLogger(ProgressLogger.wrap(log, "DeepGL"));
 
+        final NodeRange range = NodeRange.of(configuration, graph.nodeCount());
+
         algo.compute();
         graph.release();
 
-        return algo.resultStream();
+        configuration.getString("model").ifPresent(name -> DeepGLModel.store(name, algo.model()));
+
+        return algo.resultStream(range.from, range.to);
+    }
+
+    @Procedure(value = "embedding.deepgl.refresh", mode = Mode.WRITE)
+    public Stream<DeepGLRefreshResult> deepGLRefresh(
+            @Name(value = "label", defaultValue = "") String label,
+            @Name(value = "relationship", defaultValue = "") String relationship,
+            @Name(value = "nodeIds") List<Long> nodeIds,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+
+        final ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final String writeProperty = configuration.getWriteProperty(DEFAULT_TARGET_PROPERTY);
+        final DeepGLModel model = DeepGLModel.from(configuration.getString("model")
+                .orElseThrow(() -> new IllegalArgumentException("Missing 'model' in config, store it with the 'model' config of embedding.deepgl")));
+
+        final DeepGLRefreshResult.Builder builder = DeepGLRefreshResult.builder()
+                .withWriteProperty(writeProperty);
+
+        HeavyGraph graph;
+        try (ProgressTimer timer = builder.timeLoad()) {
+            graph = loadModelGraph(label, relationship, configuration, model);
+        }
+
+        final int[] changedNodes = nodeIds.stream()
+                .mapToInt(nodeId -> graph.toMappedNodeId(nodeId))
+                .filter(nodeId -> nodeId != -1)
+                .toArray();
+        builder.withChangedNodes(changedNodes.length);
+
+        final int[] affectedNodes;
+        final double[][] rows;
+        try (ProgressTimer timer = builder.timeEval()) {
+            final NeighbourhoodIndex index = model.index(graph, Pools.DEFAULT, configuration.getConcurrency());
+            final DeepGLModelEvaluator evaluator = new DeepGLModelEvaluator(model, graph, index);
+            affectedNodes = evaluator.affectedNodes(changedNodes);
+            rows = new double[affectedNodes.length][];
+            for (int i = 0; i < affectedNodes.length; i++) {
+                rows[i] = evaluator.row(affectedNodes[i]);
+            }
+        }
+        builder.withRefreshedNodes(affectedNodes.length);
+
+        builder.timeWrite(() -> new EmbeddingExporter(api, i -> graph.toOriginalNodeId(affectedNodes[i]))
+                .withBatchSize(configuration.getInt("writeBatchSize", EmbeddingExporter.DEFAULT_BATCH_SIZE))
+                .withPrecision(model.precision())
+                .parallel(Pools.DEFAULT, configuration.getInt("writeConcurrency", configuration.getConcurrency()), TerminationFlag.wrap(transaction))
+                .write(writeProperty, RowSource.of(rows, model.features().length)));
+        graph.release();
+
+        return Stream.of(builder.build());
+    }
+
+    @Procedure(value = "embedding.deepgl.apply")
+    @Description("Streams the embeddings of a stored DeepGL model for all nodes or the nodes in the 'nodeIds' config " +
+            "without learning the features again. 'skip' and 'limit' page through all nodes.")
+    public Stream<DeepGL.Result> deepGLApply(
+            @Name(value = "label", defaultValue = "") String label,
+            @Name(value = "relationship", defaultValue = "") String relationship,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+
+        final ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final String name = configuration.getString("model")
+                .orElseThrow(() -> new IllegalArgumentException("Missing 'model' in config"));
+        final DeepGLModel model = DeepGLModel.from(name);
+
+        final HeavyGraph graph = loadModelGraph(label, relationship, configuration, model);
+        if (graph.nodeCount() == 0) {
+            return Stream.empty();
+        }
+
+        final NeighbourhoodIndex index = model.index(graph, Pools.DEFAULT, configuration.getConcurrency());
+
+        final List<Number> nodeIds = configuration.get("nodeIds", null);
+        if (nodeIds == null) {
+            final FeatureMatrix embedding = DeepGLPlan.compile(model)
+                    .evaluate(graph, index, Pools.DEFAULT, configuration.getConcurrency());
+            return DeepGL.resultStream(embedding, graph::toOriginalNodeId, NodeRange.of(configuration, embedding.rows()));
+        }
+
+        final DeepGLModelEvaluator evaluator = new DeepGLModelEvaluator(model, graph, index);
+        return nodeIds.stream()
+                .mapToInt(nodeId -> graph.toMappedNodeId(nodeId.longValue()))
+                .filter(nodeId -> nodeId != -1)
+                .mapToObj(nodeId -> new DeepGL.Result(graph.toOriginalNodeId(nodeId), evaluator.row(nodeId)));
+    }
+
+    @Procedure(value = "embedding.deepgl.model.load")
+    @Description("Loads a DeepGL model serialized by embedding.deepgl.model.data under the given name.")
+    public Stream<DeepGLModelResult> deepGLModelLoad(@Name("model") String model, @Name("data") Object data) {
+        return Stream.of(new DeepGLModelResult(model, DeepGLModel.load(model, data)));
+    }
+
+    @Procedure(value = "embedding.deepgl.model.info")
+    @Description("Returns the features of a stored DeepGL model.")
+    public Stream<DeepGLModelResult> deepGLModelInfo(@Name("model") String model) {
+        return Stream.of(new DeepGLModelResult(model, DeepGLModel.from(model)));
+    }
+
+    @Procedure(value = "embedding.deepgl.model.remove")
+    @Description("Removes a stored DeepGL model.")
+    public Stream<DeepGLModelResult> deepGLModelRemove(@Name("model") String model) {
+        final DeepGLModelResult result = new DeepGLModelResult(model, DeepGLModel.from(model));
+        DeepGLModel.remove(model);
+        return Stream.of(result);
+    }
+
+    @UserFunction(value = "embedding.deepgl.model.data")
+    @Description("Returns the byte[] serialization of a stored DeepGL model.")
+    public Object deepGLModelData(@Name("model") String model) {
+        return DeepGLModel.from(model).data();
+    }
+
+    @Procedure(value = "embedding.deepgl.memrec")
+    public Stream<DeepGLMemRecResult> deepGLMemRec(
+            @Name(value = "label", defaultValue = "") String label,
+            @Name(value = "relationship", defaultValue = "") String relationship,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+
+        final ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+
+        int iterations = configuration.getInt("iterations", 10);
+        int baseFeatures = 3 + extractNodeFeatures(config).length;
+
+        // the count store answers without scanning the graph, unknown labels and types have no entries
+        final Read read = transaction.dataRead();
+        final TokenRead tokenRead = transaction.tokenRead();
+        final int labelId = label.isEmpty() ? Read.ANY_LABEL : tokenRead.nodeLabel(label);
+        final int typeId = relationship.isEmpty() ? Read.ANY_RELATIONSHIP_TYPE : tokenRead.relationshipType(relationship);
+        long nodeCount = !label.isEmpty() && labelId == TokenRead.NO_TOKEN ? 0 : read.countsForNode(labelId);
+        long relationshipCount = !relationship.isEmpty() && typeId == TokenRead.NO_TOKEN ? 0
+                : read.countsForRelationship(Read.ANY_LABEL, typeId, Read.ANY_LABEL);
+
+        DeepGLMemoryEstimation estimation = new DeepGLMemoryEstimation(
+                nodeCount,
+                relationshipCount,
+                operators(config).size(),
+                configuration.get("undirected", false) ? 1 : neighbourhoods(config).size(),
+                configuration.getConcurrency(),
+                DeepGL.Mode.parse(configuration.getString("mode", "fused")),
+                FeatureMatrix.Storage.parse(configuration.getString("storage", "heap")),
+                FeatureMatrix.Precision.parse(configuration.getString("precision", "double")));
+
+        return estimation.layers(baseFeatures, iterations).stream().map(DeepGLMemRecResult::new);
+    }
+
+    private HeavyGraph loadModelGraph(String label, String relationship, ProcedureConfiguration configuration, DeepGLModel model) {
+        final PropertyMapping[] propertyMappings = model.propertyKeys().values().stream()
+                .map(key -> PropertyMapping.of(key, key, 0.0))
+                .toArray(PropertyMapping[]::new);
+
+        return (HeavyGraph) new GraphLoader(api, Pools.DEFAULT)
+                .init(log, label, relationship, configuration)
+                .withoutNodeProperties()
+                .withDirection(configuration.getDirection(Direction.BOTH))
+                .withOptionalNodeProperties(propertyMappings)
+                .load(configuration.getGraphImpl());
+    }
+
+    private Path spillDirectory(ProcedureConfiguration configuration) {
+        return configuration.getString("spillDirectory").map(Paths::get).orElse(null);
+    }
+
+    private int pruningBands(ProcedureConfiguration configuration) {
+        switch (configuration.getString("pruningMode", "exact").toLowerCase()) {
+            case "exact":
+                return 0;
+            case "lsh":
+                return configuration.getInt("pruningBands", 64);
+            default:
+                throw new IllegalArgumentException("Unknown pruningMode: " + configuration.getString("pruningMode", "exact"));
+        }
+    }
+
+    private List<String> operators(Map<String, Object> config) {
+        final List<String> operators = (List<String>) config.getOrDefault("operators", DeepGLOperators.BUILT_IN);
+        DeepGLOperators.validate(operators);
+        return operators;
+    }
+
+    private List<Direction> neighbourhoods(Map<String, Object> config) {
+        final List<String> names = (List<String>) config.getOrDefault("neighbourhoods", Arrays.asList("out", "in", "both"));
+        final List<Direction> neighbourhoods = new ArrayList<>();
+        for (String name : names) {
+            switch (name.toLowerCase()) {
+                case "out":
+                    neighbourhoods.add(Direction.OUTGOING);
+                    break;
+                case "in":
+                    neighbourhoods.add(Direction.INCOMING);
+                    break;
+                case "both":
+                    neighbourhoods.add(Direction.BOTH);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown neighbourhood: " + name + ", expected one of out, in, both");
+            }
+        }
+        return neighbourhoods;
     }
 
     private PropertyMapping[] extractNodeFeatures(@Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
@@ -5,6 +5,8 @@ import org.neo4j.graphalgo.results.AbstractResultBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class DeepGLProcResult {
     public final long loadMillis;
@@ -15,8 +17,10 @@ public class DeepGLProcResult {
     public final long embeddingSize;
     public final long numberOfLayers;
     public final List<String> features;
+    public final Map<String, Object> threadMillis;
+    public final Map<String, Object> nodeCost;
 
-    private DeepGLProcResult(long loadMillis, long computeMillis, long writeMillis, long nodes, String writeProperty, int embeddingSize, List<String> features, int numberOfLayers) {
+    private DeepGLProcResult(long loadMillis, long computeMillis, long writeMillis, long nodes, String writeProperty, int embeddingSize, List<String> features, int numberOfLayers, Map<String, Object> threadMillis, Map<String, Object> nodeCost) {
         this.loadMillis = loadMillis;
         this.computeMillis = computeMillis;
         this.writeMillis = writeMillis;
@@ -25,6 +29,8 @@ public class DeepGLProcResult {
         this.writeProperty = writeProperty;
         this.features = features;
         this.numberOfLayers = numberOfLayers;
+        this.threadMillis = threadMillis;
+        this.nodeCost = nodeCost;
     }
 
     public static DeepGLProcResult.Builder builder() {
@@ -38,6 +44,8 @@ public class DeepGLProcResult {
         private String writeProperty = "";
         private List<String> features = new ArrayList<>();
         private int numberOfLayers;
+        private Map<String, Object> threadMillis = new TreeMap<>();
+        private Map<String, Object> nodeCost = new TreeMap<>();
 
         public DeepGLProcResult.Builder withNodeCount(long nodes) {
             this.nodes = nodes;
@@ -52,7 +60,9 @@ public class DeepGLProcResult {
                     writeProperty,
                     embeddingSize,
                     features,
-                    numberOfLayers);
+                    numberOfLayers,
+                    threadMillis,
+                    nodeCost);
         }
 
         public DeepGLProcResult.Builder withEmbeddingSize(int embeddingSize) {
@@ -77,5 +87,15 @@ public class DeepGLProcResult {
             this.numberOfLayers = numberOfLayers;
             return this;
         }
+
+        public DeepGLProcResult.Builder withThreadMillis(Map<String, Long> threadMillis) {
+            this.threadMillis.putAll(threadMillis);
+            return this;
+        }
+
+        public DeepGLProcResult.Builder withNodeCost(Map<String, Object> nodeCost) {
+            this.nodeCost.putAll(nodeCost);
+            return this;
+        }
     }
 }
@@ -0,0 +1,57 @@
+package embedding;
+
+
+import org.neo4j.graphalgo.results.AbstractResultBuilder;
+
+public class DeepGLRefreshResult {
+    public final long loadMillis;
+    public final long computeMillis;
+    public final long writeMillis;
+    public final long changedNodes;
+    public final long refreshedNodes;
+    public final String writeProperty;
+
+    private DeepGLRefreshResult(long loadMillis, long computeMillis, long writeMillis, long changedNodes, long refreshedNodes, String writeProperty) {
+        this.loadMillis = loadMillis;
+        this.computeMillis = computeMillis;
+        this.writeMillis = writeMillis;
+        this.changedNodes = changedNodes;
+        this.refreshedNodes = refreshedNodes;
+        this.writeProperty = writeProperty;
+    }
+
+    public static DeepGLRefreshResult.Builder builder() {
+        return new DeepGLRefreshResult.Builder();
+    }
+
+    public static class Builder extends AbstractResultBuilder<DeepGLRefreshResult> {
+
+        private long changedNodes = 0;
+        private long refreshedNodes = 0;
+        private String writeProperty = "";
+
+        public DeepGLRefreshResult.Builder withChangedNodes(long changedNodes) {
+            this.changedNodes = changedNodes;
+            return this;
+        }
+
+        public DeepGLRefreshResult.Builder withRefreshedNodes(long refreshedNodes) {
+            this.refreshedNodes = refreshedNodes;
+            return this;
+        }
+
+        public DeepGLRefreshResult.Builder withWriteProperty(String writeProperty) {
+            this.writeProperty = writeProperty;
+            return this;
+        }
+
+        public DeepGLRefreshResult build() {
+            return new DeepGLRefreshResult(loadDuration,
+                    evalDuration,
+                    writeDuration,
+                    changedNodes,
+                    refreshedNodes,
+                    writeProperty);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.deeplearning4j.graph.api.Vertex;
 import org.deeplearning4j.graph.models.deepwalk.DeepWalk;
 import org.deeplearning4j.graph.models.deepwalk.GraphHuffman;
 import org.deeplearning4j.graph.models.embeddings.InMemoryGraphLookupTable;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.neo4j.collection.primitive.PrimitiveIntIterator;
 import org.neo4j.graphalgo.api.Graph;
 import org.neo4j.graphalgo.api.GraphFactory;
@@ -15,18 +16,14 @@ import org.neo4j.graphalgo.core.utils.Pools;
 import org.neo4j.graphalgo.core.utils.ProgressTimer;
 import org.neo4j.graphalgo.core.utils.TerminationFlag;
 import org.neo4j.graphalgo.core.utils.paged.AllocationTracker;
-import org.neo4j.graphalgo.core.write.Exporter;
 import org.neo4j.graphalgo.results.PageRankScore;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.kernel.api.KernelTransaction;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.*;
-import org.neo4j.values.storable.DeepWalkPropertyTranslator;
-import org.neo4j.values.storable.LookupTablePropertyTranslator;
 
 import java.util.*;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class DeepWalkProc {
@@ -42,7 +39,7 @@ public class DeepWalkProc {
 
     @Procedure(value = "embedding.deepWalk", mode = Mode.WRITE)
     @Description("CALL embedding.deepWalk(label:String, relationship:String, " +
-            "{graph: 'heavy/cypher', vectorSize:10, windowSize:2, learningRate:0.01 concurrency:4, direction:'BOTH}) " +
+            "{graph: 'heavy/cypher', weightProperty:null, vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH}) " +
             "YIELD nodes, iterations, loadMillis, computeMillis, writeMillis, dampingFactor, write, writeProperty" +
             " - calculates page rank and potentially writes back")
     public Stream<PageRankScore.Stats> deepWalk2(
@@ -50,6 +47,7 @@ public class DeepWalkProc {
             @Name(value = "relationship", defaultValue = "") String relationship,
             @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
         ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final boolean floats = floatPrecision(configuration);
         AllocationTracker tracker = AllocationTracker.create();
 
         PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
@@ -61,20 +59,12 @@ public class DeepWalkProc {
             return Stream.empty();
         }
 
-        InMemoryGraphLookupTable lookupTable = runDeepWalk2(graph, statsBuilder, configuration);
+        SkipGram skipGram = runDeepWalk2(graph, statsBuilder, configuration, deepWalkStrategy(graph, configuration));
 
         if (configuration.isWriteFlag()) {
             final String writeProperty = configuration.getWriteProperty("deepWalk");
-            statsBuilder.timeWrite(() -> Exporter.of(api, graph)
-                    .withLog(log)
-                    .parallel(Pools.DEFAULT, configuration.getConcurrency(), TerminationFlag.wrap(transaction))
-                    .build()
-                    .write(
-                            writeProperty,
-                            lookupTable,
-                            new LookupTablePropertyTranslator()
-                    )
-            );
+            statsBuilder.timeWrite(() -> exporter(graph, configuration, floats)
+                    .write(writeProperty, skipGram));
         }
 
         return Stream.of(statsBuilder.build());
@@ -82,7 +72,7 @@ public class DeepWalkProc {
 
 
     @Procedure(name = "embedding.deepWalk.stream", mode = Mode.READ)
-    @Description("CALL embedding.deepWalk.stream(label:String, relationship:String, {graph: 'heavy/cypher', walkLength:10, vectorSize:10, windowSize:2, learningRate:0.01 concurrency:4, direction:'BOTH'}) " +
+    @Description("CALL embedding.deepWalk.stream(label:String, relationship:String, {graph: 'heavy/cypher', weightProperty:null, walkLength:10, vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH'}) " +
             "YIELD nodeId, embedding - compute embeddings for each node")
     public Stream<DeepWalkResult> deepWalkStream2(
             @Name(value = "label", defaultValue = "") String label,
@@ -90,6 +80,7 @@ public class DeepWalkProc {
             @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
 
         ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final boolean floats = floatPrecision(configuration);
         AllocationTracker tracker = AllocationTracker.create();
 
         PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
@@ -101,74 +92,158 @@ public class DeepWalkProc {
             return Stream.empty();
         }
 
-        InMemoryGraphLookupTable lookupTable = runDeepWalk2(graph, statsBuilder, configuration);
+        SkipGram skipGram = runDeepWalk2(graph, statsBuilder, configuration, deepWalkStrategy(graph, configuration));
 
-        return IntStream.range(0, (int) graph.nodeCount()).mapToObj(index ->
-                new DeepWalkResult(graph.toOriginalNodeId(index), lookupTable.getVector(index).toDoubleVector()));
+        return DeepWalkResult.stream(skipGram, graph::toOriginalNodeId, NodeRange.of(configuration, nodeCount), floats);
     }
 
-    private InMemoryGraphLookupTable runDeepWalk2(Graph graph, PageRankScore.Stats.Builder statsBuilder,
-                                                  ProcedureConfiguration configuration) {
+    @Procedure(value = "embedding.node2vec", mode = Mode.WRITE)
+    @Description("CALL embedding.node2vec(label:String, relationship:String, " +
+            "{graph: 'heavy/cypher', returnFactor:1.0, inOutFactor:1.0, walkSize:10, walksPerNode:10, vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH}) " +
+            "YIELD nodes, loadMillis, computeMillis, writeMillis, write, writeProperty" +
+            " - calculates node2vec embeddings from walksPerNode biased walks of walkSize steps per node, returnFactor (p) and inOutFactor (q)" +
+            " weight a step back to the previous node by 1/p and a step away from it by 1/q, and potentially writes them back")
+    public Stream<PageRankScore.Stats> node2vec(
+            @Name(value = "label", defaultValue = "") String label,
+            @Name(value = "relationship", defaultValue = "") String relationship,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+        ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        validateNode2Vec(configuration);
+        final boolean floats = floatPrecision(configuration);
+        AllocationTracker tracker = AllocationTracker.create();
+
+        PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
+        final Graph graph = load(label, relationship, tracker, configuration.getGraphImpl(), statsBuilder, configuration);
+
+        int nodeCount = Math.toIntExact(graph.nodeCount());
+        if (nodeCount == 0) {
+            graph.release();
+            return Stream.empty();
+        }
+
+        SkipGram skipGram = runDeepWalk2(graph, statsBuilder, configuration, node2vecStrategy(graph, configuration));
+
+        if (configuration.isWriteFlag()) {
+            final String writeProperty = configuration.getWriteProperty("node2vec");
+            statsBuilder.timeWrite(() -> exporter(graph, configuration, floats)
+                    .write(writeProperty, skipGram));
+        }
+
+        return Stream.of(statsBuilder.build());
+    }
+
+    @Procedure(name = "embedding.node2vec.stream", mode = Mode.READ)
+    @Description("CALL embedding.node2vec.stream(label:String, relationship:String, {graph: 'heavy/cypher', returnFactor:1.0, inOutFactor:1.0, walkSize:10, walksPerNode:10, vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH'}) " +
+            "YIELD nodeId, embedding - compute node2vec embeddings for each node from walksPerNode biased walks of walkSize steps per node," +
+            " returnFactor (p) and inOutFactor (q) weight a step back to the previous node by 1/p and a step away from it by 1/q")
+    public Stream<DeepWalkResult> node2vecStream(
+            @Name(value = "label", defaultValue = "") String label,
+            @Name(value = "relationship", defaultValue = "") String relationship,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
+
+        ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        validateNode2Vec(configuration);
+        final boolean floats = floatPrecision(configuration);
+        AllocationTracker tracker = AllocationTracker.create();
+
+        PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
+        final Graph graph = load(label, relationship, tracker, configuration.getGraphImpl(), statsBuilder, configuration);
+
+        int nodeCount = Math.toIntExact(graph.nodeCount());
+        if (nodeCount == 0) {
+            graph.release();
+            return Stream.empty();
+        }
+
+        SkipGram skipGram = runDeepWalk2(graph, statsBuilder, configuration, node2vecStrategy(graph, configuration));
+
+        return DeepWalkResult.stream(skipGram, graph::toOriginalNodeId, NodeRange.of(configuration, nodeCount), floats);
+    }
+
+    /**
+     * uniform steps, or steps proportional to the relationship weights if a weightProperty is configured
+     */
+    private static org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy deepWalkStrategy(Graph graph, ProcedureConfiguration configuration) {
+        if (!configuration.hasWeightProperty()) {
+            return new NodeWalker.RandomNextNodeStrategy(graph, graph);
+        }
+        return NodeWalker.WeightedNextNodeStrategy.build(graph, Pools.DEFAULT, configuration.getConcurrency());
+    }
+
+    /**
+     * rejects what node2vec does not support before the graph is loaded
+     */
+    private static void validateNode2Vec(ProcedureConfiguration configuration) {
+        if (configuration.hasWeightProperty()) {
+            throw new IllegalArgumentException("node2vec does not support a weightProperty");
+        }
+    }
+
+    /**
+     * node2vec steps over the sorted both neighbourhoods, relationships stored in both directions are only kept once
+     */
+    private static NodeWalker.Node2VecNextNodeStrategy node2vecStrategy(Graph graph, ProcedureConfiguration configuration) {
+        final double returnFactor = configuration.getNumber("returnFactor", 1.0).doubleValue();
+        final double inOutFactor = configuration.getNumber("inOutFactor", 1.0).doubleValue();
+        final int concurrency = configuration.getConcurrency();
+
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, concurrency);
+        index = index.toUndirected(index.isSymmetric(Pools.DEFAULT, concurrency), Pools.DEFAULT, concurrency)
+                .sortNeighbourhoods(Pools.DEFAULT, concurrency);
+        return new NodeWalker.Node2VecNextNodeStrategy(graph, index, returnFactor, inOutFactor);
+    }
+
+    private SkipGram runDeepWalk2(Graph graph, PageRankScore.Stats.Builder statsBuilder,
+                                  ProcedureConfiguration configuration, org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy strategy) {
         long vectorSize = configuration.get("vectorSize", 10L);
         double learningRate = configuration.get("learningRate", 0.01);
         long windowSize = configuration.get("windowSize", 2L);
         long walkLength = configuration.get("walkSize", 10L);
-        long numberOfWalks = configuration.get("numberOfWalks", 10L);
+        // numberOfWalks is the former name of walksPerNode
+        int walksPerNode = configuration.getInt("walksPerNode", configuration.getInt("numberOfWalks", 10));
+        int walkConcurrency = configuration.getInt("walkConcurrency", configuration.getConcurrency());
+        long seed = configuration.getNumber("seed", 42L).longValue();
 
         Map<String, Number> params = new HashMap<>();
         params.put("vectorSize", vectorSize);
         params.put("learningRate", learningRate);
         params.put("windowSize", windowSize);
         params.put("walkLength", walkLength);
-        params.put("numberOfWalks", numberOfWalks);
+        params.put("walksPerNode", walksPerNode);
+        params.put("walkConcurrency", walkConcurrency);
+        params.put("seed", seed);
 
         log.info("Executing DeepWalk with params: %s", params);
 
-        GraphHuffman gh = new GraphHuffman((int) graph.nodeCount());
-
         int[] degrees = new int[(int) graph.nodeCount()];
         graph.forEachNode(nodeId -> {
             degrees[nodeId] = graph.degree(nodeId, Direction.BOTH);
             return true;
         });
 
-        gh.buildTree(degrees);
-        InMemoryGraphLookupTable lookupTable = new InMemoryGraphLookupTable((int) graph.nodeCount(),
-                (int) vectorSize, gh, learningRate);
+        final SkipGram skipGram;
+        if (SkipGram.Trainer.parse(configuration.getString("trainer", "softmax")) == SkipGram.Trainer.NEGATIVE_SAMPLING) {
+            skipGram = SkipGram.negativeSampling(degrees, (int) vectorSize, configuration.getInt("negatives", 5), learningRate, seed);
+        } else {
+            GraphHuffman gh = new GraphHuffman((int) graph.nodeCount());
+            gh.buildTree(degrees);
+            skipGram = SkipGram.hierarchicalSoftmax((int) graph.nodeCount(), (int) vectorSize, gh, learningRate, seed);
+        }
 
         NodeWalker nodeWalker = new NodeWalker();
-        NodeWalker.RandomNextNodeStrategy strategy = new NodeWalker.RandomNextNodeStrategy(graph, graph);
-
-//        int limit = (((int) numberOfWalks) == -1) ? (int) graph.nodeCount() : Math.toIntExact(numberOfWalks);
-        int limit = Math.toIntExact(graph.nodeCount());
-        IntStream idStream = IntStream.range(0, Math.toIntExact(graph.nodeCount())).limit(limit);
-
-        PrimitiveIterator.OfInt ints = IntStream.range(0, limit).unordered().parallel().flatMap((s) ->
-                idStream).limit(limit).iterator();
 
         Stream<int[]> randomWalks = nodeWalker.internalRandomWalk((int) walkLength, strategy,
-                TerminationFlag.wrap(transaction), 1, (int) numberOfWalks, ints);
+                TerminationFlag.wrap(transaction), walkConcurrency, Math.toIntExact(graph.nodeCount()), walksPerNode);
 
-        randomWalks.forEach(walk -> skipGram(walk, lookupTable, (int) windowSize));
+        statsBuilder.timeEval(() -> skipGram.train(randomWalks.iterator(), (int) windowSize, Pools.DEFAULT, configuration.getConcurrency(), TerminationFlag.wrap(transaction)));
 
-        return lookupTable;
-    }
-
-    private void skipGram(int[] walk, InMemoryGraphLookupTable lookupTable, int windowSize) {
-        for (int mid = windowSize; mid < walk.length - windowSize; mid++) {
-            for (int pos = mid - windowSize; pos <= mid + windowSize; pos++) {
-                if (pos == mid)
-                    continue;
-
-                lookupTable.iterate(walk[mid], walk[pos]);
-            }
-        }
+        return skipGram;
     }
 
 
     @Procedure(value = "embedding.dl4j.deepWalk", mode = Mode.WRITE)
     @Description("CALL embedding.dl4j.deepWalk(label:String, relationship:String, " +
-            "{graph: 'heavy/cypher', vectorSize:10, windowSize:2, learningRate:0.01 concurrency:4, direction:'BOTH}) " +
+            "{graph: 'heavy/cypher', vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH}) " +
             "YIELD nodes, iterations, loadMillis, computeMillis, writeMillis, dampingFactor, write, writeProperty" +
             " - calculates page rank and potentially writes back")
     public Stream<PageRankScore.Stats> deepWalk(
@@ -176,6 +251,7 @@ public class DeepWalkProc {
             @Name(value = "relationship", defaultValue = "") String relationship,
             @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
         ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final boolean floats = floatPrecision(configuration);
         AllocationTracker tracker = AllocationTracker.create();
 
         PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
@@ -192,16 +268,9 @@ public class DeepWalkProc {
 
         if (configuration.isWriteFlag()) {
             final String writeProperty = configuration.getWriteProperty("deepWalk");
-            statsBuilder.timeWrite(() -> Exporter.of(api, graph)
-                    .withLog(log)
-                    .parallel(Pools.DEFAULT, configuration.getConcurrency(), TerminationFlag.wrap(transaction))
-                    .build()
-                    .write(
-                            writeProperty,
-                            dw,
-                            new DeepWalkPropertyTranslator()
-                    )
-            );
+            final INDArray vectors = ((InMemoryGraphLookupTable) dw.lookupTable()).getVertexVectors();
+            statsBuilder.timeWrite(() -> exporter(graph, configuration, floats)
+                    .write(writeProperty, RowSource.of(vectors)));
         }
 
         return Stream.of(statsBuilder.build());
@@ -209,7 +278,7 @@ public class DeepWalkProc {
 
 
     @Procedure(name = "embedding.dl4j.deepWalk.stream", mode = Mode.READ)
-    @Description("CALL embedding.dl4j.deepWalk.stream(label:String, relationship:String, {graph: 'heavy/cypher', walkLength:10, vectorSize:10, windowSize:2, learningRate:0.01 concurrency:4, direction:'BOTH'}) " +
+    @Description("CALL embedding.dl4j.deepWalk.stream(label:String, relationship:String, {graph: 'heavy/cypher', walkLength:10, vectorSize:10, windowSize:2, learningRate:0.01, seed:42, concurrency:4, direction:'BOTH'}) " +
             "YIELD nodeId, embedding - compute embeddings for each node")
     public Stream<DeepWalkResult> deepWalkStream(
             @Name(value = "label", defaultValue = "") String label,
@@ -217,6 +286,7 @@ public class DeepWalkProc {
             @Name(value = "config", defaultValue = "{}") Map<String, Object> config) {
 
         ProcedureConfiguration configuration = ProcedureConfiguration.create(config);
+        final boolean floats = floatPrecision(configuration);
         AllocationTracker tracker = AllocationTracker.create();
 
         PageRankScore.Stats.Builder statsBuilder = new PageRankScore.Stats.Builder();
@@ -231,8 +301,8 @@ public class DeepWalkProc {
         org.deeplearning4j.graph.graph.Graph<Integer, Integer> iGraph = buildDl4jGraph(graph);
         DeepWalk<Integer, Integer> dw = runDeepWalk(iGraph, statsBuilder, configuration);
 
-        return IntStream.range(0, dw.numVertices()).mapToObj(index ->
-                new DeepWalkResult(graph.toOriginalNodeId(index), dw.getVertexVector(index).toDoubleVector()));
+        final INDArray vectors = ((InMemoryGraphLookupTable) dw.lookupTable()).getVertexVectors();
+        return DeepWalkResult.stream(RowSource.of(vectors), graph::toOriginalNodeId, NodeRange.of(configuration, nodeCount), floats);
     }
 
     private org.deeplearning4j.graph.graph.Graph<Integer, Integer> buildDl4jGraph(Graph graph) {
@@ -263,14 +333,19 @@ public class DeepWalkProc {
         double learningRate = configuration.get("learningRate", 0.01);
         long  windowSize = configuration.get("windowSize", 2L);
         long walkLength = configuration.get("walkSize", 10L);
-        long numberOfWalks = configuration.get("numberOfWalks", 10L);
+        // numberOfWalks is the former name of walksPerNode
+        int walksPerNode = configuration.getInt("walksPerNode", configuration.getInt("numberOfWalks", 10));
+        int walkConcurrency = configuration.getInt("walkConcurrency", configuration.getConcurrency());
+        long seed = configuration.getNumber("seed", 42L).longValue();
 
         Map<String, Number> params = new HashMap<>();
         params.put("vectorSize", vectorSize);
         params.put("learningRate", learningRate);
         params.put("windowSize", windowSize);
         params.put("walkLength", walkLength);
-        params.put("numberOfWalks", numberOfWalks);
+        params.put("walksPerNode", walksPerNode);
+        params.put("walkConcurrency", walkConcurrency);
+        params.put("seed", seed);
 
         log.info("Executing DeepWalk with params: %s", params);
 
@@ -279,18 +354,37 @@ public class DeepWalkProc {
         builder.vectorSize((int) vectorSize);
         builder.learningRate(learningRate);
         builder.windowSize((int) windowSize);
+        builder.seed(seed);
         DeepWalk<Integer, Integer> dw = builder.build();
 
         dw.initialize(iGraph);
 
         statsBuilder.timeEval(() -> dw.fit(new MyRandomWalkGraphIteratorProvider<>(
                 iGraph, (int) walkLength, 1,
-                NoEdgeHandling.SELF_LOOP_ON_DISCONNECTED, (int) numberOfWalks)));
+                NoEdgeHandling.SELF_LOOP_ON_DISCONNECTED, walksPerNode, walkConcurrency)));
 
         return dw;
     }
 
 
+    private EmbeddingExporter exporter(Graph graph, ProcedureConfiguration configuration, boolean floats) {
+        return new EmbeddingExporter(api, graph::toOriginalNodeId)
+                .withBatchSize(configuration.getInt("writeBatchSize", EmbeddingExporter.DEFAULT_BATCH_SIZE))
+                .withPrecision(floats ? FeatureMatrix.Precision.FLOAT : FeatureMatrix.Precision.DOUBLE)
+                .parallel(Pools.DEFAULT, configuration.getInt("writeConcurrency", configuration.getConcurrency()), TerminationFlag.wrap(transaction));
+    }
+
+    /**
+     * @return whether the embedding is written and streamed as float[], vectors are not binned so they cannot be stored as bytes
+     */
+    private static boolean floatPrecision(ProcedureConfiguration configuration) {
+        final FeatureMatrix.Precision precision = FeatureMatrix.Precision.parse(configuration.getString("precision", "double"));
+        if (precision == FeatureMatrix.Precision.BYTE) {
+            throw new IllegalArgumentException("DeepWalk supports precision 'double' or 'float', got 'byte'");
+        }
+        return precision == FeatureMatrix.Precision.FLOAT;
+    }
+
     private Graph load(
             String label,
             String relationship,
@@ -302,8 +396,12 @@ public class DeepWalkProc {
                 .withAllocationTracker(tracker)
                 .withDirection(configuration.getDirection(Direction.BOTH))
                 .withoutNodeProperties()
-                .withoutNodeWeights()
-                .withoutRelationshipWeights();
+                .withoutNodeWeights();
+        if (configuration.hasWeightProperty()) {
+            graphLoader.withOptionalRelationshipWeightsFromProperty(configuration.getWeightProperty(), configuration.getWeightPropertyDefaultValue(1.0));
+        } else {
+            graphLoader.withoutRelationshipWeights();
+        }
 
 
         try (ProgressTimer timer = ProgressTimer.start()) {
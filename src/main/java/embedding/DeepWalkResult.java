@@ -1,14 +1,42 @@
 package embedding;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class DeepWalkResult {
     public Long nodeId;
-    public List<Double> embedding = new ArrayList<>();
+    // double[] or float[], returned to Cypher as a list without boxing every value
+    public Object embedding;
 
-    public DeepWalkResult(long nodeId, double[] embedding) {
+    public DeepWalkResult(long nodeId, Object embedding) {
         this.nodeId = nodeId;
-        for (double item : embedding) this.embedding.add(item);
+        this.embedding = embedding;
     }
-}
\ No newline at end of file
+
+    /**
+     * streams the rows of an embedding, copying a page of rows out of it at once
+     */
+    static Stream<DeepWalkResult> stream(RowSource vectors, IntToLongFunction toOriginalNodeId, NodeRange range, boolean floats) {
+        final int dimensions = vectors.dimensions();
+        return range.pages((from, to) -> {
+            final double[] page = new double[(to - from) * dimensions];
+            vectors.copyRows(from, to, page);
+            return IntStream.range(from, to).mapToObj(nodeId -> {
+                final int offset = (nodeId - from) * dimensions;
+                final Object row;
+                if (floats) {
+                    final float[] values = new float[dimensions];
+                    for (int i = 0; i < dimensions; i++) {
+                        values[i] = (float) page[offset + i];
+                    }
+                    row = values;
+                } else {
+                    row = new double[dimensions];
+                    System.arraycopy(page, offset, row, 0, dimensions);
+                }
+                return new DeepWalkResult(toOriginalNodeId.applyAsLong(nodeId), row);
+            });
+        });
+    }
+}
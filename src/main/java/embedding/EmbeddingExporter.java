@@ -0,0 +1,112 @@
+package embedding;
+
+import org.neo4j.graphalgo.core.utils.ParallelUtil;
+import org.neo4j.graphalgo.core.utils.StatementApi;
+import org.neo4j.graphalgo.core.utils.TerminationFlag;
+import org.neo4j.internal.kernel.api.Write;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.values.storable.Value;
+import org.neo4j.values.storable.Values;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Writes an embedding back as one array property per node.
+ * <p>
+ * Nodes are written in batches of consecutive internal ids, one transaction per batch. A batch
+ * copies all of its rows out of the embedding at once into a buffer that every writer thread
+ * reuses for all of its batches, each property is then a single copy out of that buffer.
+ */
+public final class EmbeddingExporter extends StatementApi {
+
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private final IntToLongFunction toOriginalNodeId;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private ExecutorService executorService;
+    private int concurrency = 1;
+    private TerminationFlag terminationFlag = TerminationFlag.RUNNING_TRUE;
+    private FeatureMatrix.Precision precision = FeatureMatrix.Precision.DOUBLE;
+
+    public EmbeddingExporter(GraphDatabaseAPI api, IntToLongFunction toOriginalNodeId) {
+        super(api);
+        this.toOriginalNodeId = toOriginalNodeId;
+    }
+
+    public EmbeddingExporter withBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Write batch size must be positive, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public EmbeddingExporter parallel(ExecutorService executorService, int concurrency, TerminationFlag terminationFlag) {
+        this.executorService = executorService;
+        this.concurrency = concurrency;
+        this.terminationFlag = terminationFlag;
+        return this;
+    }
+
+    /**
+     * the array type of the written properties
+     */
+    public EmbeddingExporter withPrecision(FeatureMatrix.Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    public void write(String property, RowSource embedding) {
+        final int propertyId = applyInTransaction(ktx -> ktx.tokenWrite().propertyKeyGetOrCreateForName(property));
+        final int nodeCount = embedding.rows();
+        final int dimensions = embedding.dimensions();
+        final int batches = ParallelUtil.threadSize(batchSize, nodeCount);
+        final AtomicInteger nextBatch = new AtomicInteger();
+
+        final Collection<Runnable> writers = ParallelUtil.tasks(Math.max(1, Math.min(concurrency, batches)), () -> () -> {
+            final double[] buffer = new double[Math.multiplyExact(Math.min(batchSize, nodeCount), dimensions)];
+            int batch;
+            while (terminationFlag.running() && (batch = nextBatch.getAndIncrement()) < batches) {
+                final int from = batch * batchSize;
+                final int to = Math.min(nodeCount, from + batchSize);
+                embedding.copyRows(from, to, buffer);
+                acceptInTransaction(ktx -> {
+                    final Write write = ktx.dataWrite();
+                    for (int nodeId = from; nodeId < to; nodeId++) {
+                        write.nodeSetProperty(toOriginalNodeId.applyAsLong(nodeId), propertyId, value(buffer, (nodeId - from) * dimensions, dimensions));
+                    }
+                });
+            }
+        });
+        ParallelUtil.run(writers, executorService);
+    }
+
+    private Value value(double[] buffer, int offset, int dimensions) {
+        switch (precision) {
+            case FLOAT:
+                final float[] floats = new float[dimensions];
+                for (int i = 0; i < dimensions; i++) {
+                    floats[i] = (float) buffer[offset + i];
+                }
+                return Values.floatArray(floats);
+            case BYTE:
+                final byte[] bytes = new byte[dimensions];
+                for (int i = 0; i < dimensions; i++) {
+                    final double bin = buffer[offset + i];
+                    // byte properties are signed, bins above 127 would be read back as negative numbers
+                    if (bin < 0 || bin > Byte.MAX_VALUE) {
+                        throw new IllegalArgumentException("Byte precision only holds bins from 0 to " + Byte.MAX_VALUE + ", got " + bin);
+                    }
+                    bytes[i] = (byte) bin;
+                }
+                return Values.byteArray(bytes);
+            default:
+                final double[] doubles = new double[dimensions];
+                System.arraycopy(buffer, offset, doubles, 0, dimensions);
+                return Values.doubleArray(doubles);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package embedding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns features so that every distinct feature expression exists exactly once.
+ * <p>
+ * A feature is created on top of the interned instance of its previous feature, so the
+ * features of all layers form a DAG in which shared sub-expressions are shared instances.
+ * Every interned feature gets the id of its creation order, which is stable for the
+ * lifetime of the DAG and can be used to index arrays or bit sets.
+ */
+public class FeatureDag {
+
+    private final Map<Pruning.Feature, Pruning.Feature> interned = new HashMap<>();
+    private final List<Pruning.Feature> features = new ArrayList<>();
+
+    /**
+     * @return the interned base feature, e.g. a degree or a node property
+     */
+    public Pruning.Feature base(String name) {
+        return intern(name, null);
+    }
+
+    /**
+     * @return the interned feature applying {@code name} to {@code prev}
+     */
+    public Pruning.Feature apply(String name, Pruning.Feature prev) {
+        return intern(name, intern(prev));
+    }
+
+    /**
+     * @return the interned instance of a feature created elsewhere, e.g. by a loaded model
+     */
+    public Pruning.Feature intern(Pruning.Feature feature) {
+        if (feature == null) {
+            return null;
+        }
+        final Pruning.Feature existing = interned.get(feature);
+        if (existing != null) {
+            return existing;
+        }
+        return intern(feature.getName(), intern(feature.getPrev()));
+    }
+
+    public Pruning.Feature get(int id) {
+        return features.get(id);
+    }
+
+    public int size() {
+        return features.size();
+    }
+
+    private Pruning.Feature intern(String name, Pruning.Feature prev) {
+        final Pruning.Feature probe = new Pruning.Feature(name, prev);
+        final Pruning.Feature existing = interned.get(probe);
+        if (existing != null) {
+            return existing;
+        }
+        final Pruning.Feature feature = new Pruning.Feature(name, prev, features.size());
+        features.add(feature);
+        interned.put(feature, feature);
+        return feature;
+    }
+}
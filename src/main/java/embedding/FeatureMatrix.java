@@ -0,0 +1,535 @@
+package embedding;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Column-major node x feature matrix backed by one primitive array per feature.
+ * <p>
+ * Binning and pruning work on whole columns, so every column is stored separately.
+ * Selecting or concatenating columns shares the underlying storage instead of copying it.
+ * Conversion to an {@link INDArray} only happens on demand.
+ */
+public final class FeatureMatrix {
+
+    /**
+     * where the columns of a matrix are allocated
+     */
+    public enum Storage {
+        HEAP {
+            @Override
+            Column[] allocate(int rows, int columns, Precision precision, Path spillDirectory) {
+                final Column[] data = new Column[columns];
+                for (int column = 0; column < columns; column++) {
+                    data[column] = precision.heap(rows);
+                }
+                return data;
+            }
+        },
+        OFF_HEAP {
+            @Override
+            Column[] allocate(int rows, int columns, Precision precision, Path spillDirectory) {
+                final Column[] data = new Column[columns];
+                for (int column = 0; column < columns; column++) {
+                    data[column] = precision.direct(ByteBuffer
+                            .allocateDirect(Math.multiplyExact(rows, precision.bytes))
+                            .order(ByteOrder.nativeOrder()));
+                }
+                return data;
+            }
+        },
+        // one memory-mapped file per matrix, paged in and out by the operating system; the columns are
+        // consecutive slices of as few mappings as the 2GB limit of a single mapping allows
+        MAPPED {
+            @Override
+            Column[] allocate(int rows, int columns, Precision precision, Path spillDirectory) {
+                final Column[] data = new Column[columns];
+                if (columns == 0) {
+                    return data;
+                }
+                final int columnBytes = Math.multiplyExact(rows, precision.bytes);
+                final int columnsPerMapping = columnBytes == 0 ? columns : Math.max(1, Integer.MAX_VALUE / columnBytes);
+                final Path directory = spillDirectory != null ? spillDirectory : Paths.get(System.getProperty("java.io.tmpdir"));
+                try {
+                    Files.createDirectories(directory);
+                    final Path file = Files.createTempFile(directory, "deepgl-", ".layer");
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        for (int first = 0; first < columns; first += columnsPerMapping) {
+                            final int count = Math.min(columnsPerMapping, columns - first);
+                            final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE,
+                                    (long) first * columnBytes, (long) count * columnBytes);
+                            for (int column = 0; column < count; column++) {
+                                mapping.limit((column + 1) * columnBytes).position(column * columnBytes);
+                                data[first + column] = precision.direct(mapping.slice().order(ByteOrder.nativeOrder()));
+                            }
+                        }
+                    }
+                    // the mappings outlive the file name, the space is freed once all columns are collected
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        file.toFile().deleteOnExit();
+                    }
+                    return data;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not map the feature columns in " + directory, e);
+                }
+            }
+        };
+
+        abstract Column[] allocate(int rows, int columns, Precision precision, Path spillDirectory);
+
+        public static Storage parse(String storage) {
+            switch (storage.toLowerCase()) {
+                case "heap":
+                    return HEAP;
+                case "offheap":
+                case "off_heap":
+                    return OFF_HEAP;
+                case "mapped":
+                    return MAPPED;
+                default:
+                    throw new IllegalArgumentException("Unknown storage: " + storage);
+            }
+        }
+    }
+
+    /**
+     * the type the values of a column are stored as, values are always read and written as doubles
+     */
+    public enum Precision {
+        DOUBLE(Double.BYTES) {
+            @Override
+            Column heap(int rows) {
+                return new HeapColumn(new double[rows]);
+            }
+
+            @Override
+            Column direct(ByteBuffer buffer) {
+                return new DirectColumn(buffer.asDoubleBuffer());
+            }
+        },
+        FLOAT(Float.BYTES) {
+            @Override
+            Column heap(int rows) {
+                return new FloatColumn(new float[rows]);
+            }
+
+            @Override
+            Column direct(ByteBuffer buffer) {
+                return new DirectFloatColumn(buffer.asFloatBuffer());
+            }
+        },
+        // whole numbers from 0 to 255, enough for bin indices; written as signed byte properties, so only
+        // 128 bins can be exported, log bins of up to 2^31 nodes never exceed 32
+        BYTE(Byte.BYTES) {
+            @Override
+            Column heap(int rows) {
+                return new ByteColumn(new byte[rows]);
+            }
+
+            @Override
+            Column direct(ByteBuffer buffer) {
+                return new DirectByteColumn(buffer);
+            }
+        };
+
+        final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        abstract Column heap(int rows);
+
+        abstract Column direct(ByteBuffer buffer);
+
+        public int bytes() {
+            return bytes;
+        }
+
+        public static Precision parse(String precision) {
+            switch (precision.toLowerCase()) {
+                case "double":
+                    return DOUBLE;
+                case "float":
+                    return FLOAT;
+                case "byte":
+                    return BYTE;
+                default:
+                    throw new IllegalArgumentException("Unknown precision: " + precision);
+            }
+        }
+    }
+
+    /**
+     * a single feature column
+     */
+    public interface Column {
+
+        double get(int row);
+
+        void set(int row, double value);
+
+        default void copyTo(double[] target) {
+            for (int row = 0; row < target.length; row++) {
+                target[row] = get(row);
+            }
+        }
+
+        /**
+         * copies the rows from {@code fromRow} on until the target is full
+         */
+        default void copyTo(int fromRow, double[] target) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] = get(fromRow + i);
+            }
+        }
+
+        default void copyFrom(double[] source) {
+            for (int row = 0; row < source.length; row++) {
+                set(row, source[row]);
+            }
+        }
+    }
+
+    private final int rows;
+    private final Column[] columns;
+    private final Storage storage;
+    private final Precision precision;
+    // where mapped columns are created, null for the temp directory
+    private final Path spillDirectory;
+
+    private FeatureMatrix(int rows, Column[] columns, Storage storage, Precision precision, Path spillDirectory) {
+        this.rows = rows;
+        this.columns = columns;
+        this.storage = storage;
+        this.precision = precision;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public static FeatureMatrix create(int rows, int columns, Storage storage) {
+        return create(rows, columns, storage, null);
+    }
+
+    public static FeatureMatrix create(int rows, int columns, Storage storage, Path spillDirectory) {
+        return create(rows, columns, storage, Precision.DOUBLE, spillDirectory);
+    }
+
+    public static FeatureMatrix create(int rows, int columns, Storage storage, Precision precision, Path spillDirectory) {
+        return new FeatureMatrix(rows, storage.allocate(rows, columns, precision, spillDirectory), storage, precision, spillDirectory);
+    }
+
+    public static FeatureMatrix of(INDArray array) {
+        final FeatureMatrix matrix = create(array.rows(), array.columns(), Storage.HEAP);
+        for (int column = 0; column < array.columns(); column++) {
+            for (int row = 0; row < array.rows(); row++) {
+                matrix.set(row, column, array.getDouble(row, column));
+            }
+        }
+        return matrix;
+    }
+
+    public static FeatureMatrix of(double[][] rowMajor) {
+        final int columns = rowMajor.length == 0 ? 0 : rowMajor[0].length;
+        final FeatureMatrix matrix = create(rowMajor.length, columns, Storage.HEAP);
+        for (int row = 0; row < rowMajor.length; row++) {
+            for (int column = 0; column < columns; column++) {
+                matrix.set(row, column, rowMajor[row][column]);
+            }
+        }
+        return matrix;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns.length;
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    public Precision precision() {
+        return precision;
+    }
+
+    public Column column(int column) {
+        return columns[column];
+    }
+
+    public double get(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    public void set(int row, int column, double value) {
+        columns[column].set(row, value);
+    }
+
+    /**
+     * copies one row into the given buffer, which needs at least {@link #columns()} entries
+     */
+    public void row(int row, double[] target) {
+        for (int column = 0; column < columns.length; column++) {
+            target[column] = columns[column].get(row);
+        }
+    }
+
+    public double[] row(int row) {
+        final double[] target = new double[columns.length];
+        row(row, target);
+        return target;
+    }
+
+    /**
+     * copies the rows from..to one after the other into the target, reading every column as one
+     * contiguous range instead of gathering single values from all columns for every row
+     */
+    public void copyRows(int from, int to, double[] target) {
+        final int count = to - from;
+        final double[] buffer = new double[count];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column].copyTo(from, buffer);
+            for (int i = 0; i < count; i++) {
+                target[i * columns.length + column] = buffer[i];
+            }
+        }
+    }
+
+    /**
+     * copies a range of rows into one array per row, see {@link #copyRows(int, int, double[])}
+     *
+     * @return a double[] per row, or a float[] per row if the matrix is stored as floats or bytes
+     */
+    public Object[] rows(int from, int to) {
+        final int count = to - from;
+        final double[] rowMajor = new double[Math.multiplyExact(count, columns.length)];
+        copyRows(from, to, rowMajor);
+        if (precision == Precision.DOUBLE) {
+            final double[][] target = new double[count][columns.length];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(rowMajor, i * columns.length, target[i], 0, columns.length);
+            }
+            return target;
+        }
+        final float[][] target = new float[count][columns.length];
+        for (int i = 0; i < count; i++) {
+            for (int column = 0; column < columns.length; column++) {
+                target[i][column] = (float) rowMajor[i * columns.length + column];
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @return a matrix with the columns of this matrix followed by the columns of other, sharing their storage
+     */
+    public FeatureMatrix concat(FeatureMatrix other) {
+        if (other.rows != rows) {
+            throw new IllegalArgumentException("Cannot concat matrices with " + rows + " and " + other.rows + " rows");
+        }
+        final Column[] data = Arrays.copyOf(columns, columns.length + other.columns.length);
+        System.arraycopy(other.columns, 0, data, columns.length, other.columns.length);
+        return new FeatureMatrix(rows, data, storage, precision, spillDirectory);
+    }
+
+    /**
+     * @return a matrix of the given columns in the given order, sharing their storage
+     */
+    public FeatureMatrix selectColumns(int... columnIds) {
+        final Column[] data = new Column[columnIds.length];
+        for (int i = 0; i < columnIds.length; i++) {
+            data[i] = columns[columnIds[i]];
+        }
+        return new FeatureMatrix(rows, data, storage, precision, spillDirectory);
+    }
+
+    public FeatureMatrix copy() {
+        return copy(precision);
+    }
+
+    /**
+     * @return a copy of this matrix with its values stored in the given precision, or this matrix if it already is
+     */
+    public FeatureMatrix withPrecision(Precision precision) {
+        return precision == this.precision ? this : copy(precision);
+    }
+
+    private FeatureMatrix copy(Precision precision) {
+        final FeatureMatrix copy = create(rows, columns.length, storage, precision, spillDirectory);
+        final double[] buffer = new double[rows];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column].copyTo(buffer);
+            copy.columns[column].copyFrom(buffer);
+        }
+        return copy;
+    }
+
+    public INDArray toINDArray() {
+        final double[] data = new double[Math.multiplyExact(rows, columns.length)];
+        final double[] buffer = new double[rows];
+        for (int column = 0; column < columns.length; column++) {
+            columns[column].copyTo(buffer);
+            System.arraycopy(buffer, 0, data, column * rows, rows);
+        }
+        return Nd4j.create(data, new int[]{rows, columns.length}, 'f');
+    }
+
+    static final class HeapColumn implements Column {
+        private final double[] values;
+
+        HeapColumn(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values[row] = value;
+        }
+
+        @Override
+        public void copyTo(double[] target) {
+            System.arraycopy(values, 0, target, 0, target.length);
+        }
+
+        @Override
+        public void copyTo(int fromRow, double[] target) {
+            System.arraycopy(values, fromRow, target, 0, target.length);
+        }
+
+        @Override
+        public void copyFrom(double[] source) {
+            System.arraycopy(source, 0, values, 0, source.length);
+        }
+    }
+
+    static final class DirectColumn implements Column {
+        private final DoubleBuffer values;
+
+        DirectColumn(DoubleBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values.put(row, value);
+        }
+
+        @Override
+        public void copyTo(double[] target) {
+            values.duplicate().get(target, 0, target.length);
+        }
+
+        @Override
+        public void copyTo(int fromRow, double[] target) {
+            final DoubleBuffer range = values.duplicate();
+            range.position(fromRow);
+            range.get(target, 0, target.length);
+        }
+
+        @Override
+        public void copyFrom(double[] source) {
+            values.duplicate().put(source, 0, source.length);
+        }
+    }
+
+    static final class FloatColumn implements Column {
+        private final float[] values;
+
+        FloatColumn(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values[row] = (float) value;
+        }
+    }
+
+    static final class DirectFloatColumn implements Column {
+        private final FloatBuffer values;
+
+        DirectFloatColumn(FloatBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values.get(row);
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values.put(row, (float) value);
+        }
+    }
+
+    // stored unsigned, values outside of 0 to 255 wrap around
+    static final class ByteColumn implements Column {
+        private final byte[] values;
+
+        ByteColumn(byte[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values[row] & 0xFF;
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values[row] = (byte) (int) value;
+        }
+    }
+
+    static final class DirectByteColumn implements Column {
+        private final ByteBuffer values;
+
+        DirectByteColumn(ByteBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(int row) {
+            return values.get(row) & 0xFF;
+        }
+
+        @Override
+        public void set(int row, double value) {
+            values.put(row, (byte) (int) value);
+        }
+    }
+}
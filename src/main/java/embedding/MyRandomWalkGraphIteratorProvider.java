@@ -10,41 +10,40 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+/**
+ * Starts {@code walksPerNode} walks from every vertex, split into {@code concurrency} contiguous vertex ranges per round.
+ */
 public class MyRandomWalkGraphIteratorProvider<V> implements GraphWalkIteratorProvider<V> {
 
     private IGraph<V, ?> graph;
     private int walkLength;
     private Random rng;
     private NoEdgeHandling mode;
-    private int numberOfWalks;
+    private int walksPerNode;
+    private int concurrency;
 
-    public MyRandomWalkGraphIteratorProvider(IGraph<V, ?> graph, int walkLength, long seed, NoEdgeHandling mode, int numberOfWalks) {
+    public MyRandomWalkGraphIteratorProvider(IGraph<V, ?> graph, int walkLength, long seed, NoEdgeHandling mode, int walksPerNode, int concurrency) {
         this.graph = graph;
         this.walkLength = walkLength;
         this.rng = new Random(seed);
         this.mode = mode;
-        this.numberOfWalks = numberOfWalks;
+        this.walksPerNode = walksPerNode;
+        this.concurrency = concurrency;
     }
 
 
     @Override
     public List<GraphWalkIterator<V>> getGraphWalkIterators(int numIterators) {
         int nVertices = graph.numVertices();
-        numIterators = numberOfWalks;
-
-        int verticesPerIter = nVertices / numIterators;
-
-        List<GraphWalkIterator<V>> list = new ArrayList<>(numIterators);
-        int last = 0;
-        for (int i = 0; i < numIterators; i++) {
-            int from = last;
-            int to = Math.min(nVertices, from + verticesPerIter);
-            if (i == numIterators - 1)
-                to = nVertices;
-
-            GraphWalkIterator<V> iter = new RandomWalkIterator<>(graph, walkLength, rng.nextLong(), mode, from, to);
-            list.add(iter);
-            last = to;
+        int partitions = Math.max(1, Math.min(concurrency, nVertices));
+
+        List<GraphWalkIterator<V>> list = new ArrayList<>(partitions * walksPerNode);
+        for (int round = 0; round < walksPerNode; round++) {
+            for (int i = 0; i < partitions; i++) {
+                int from = (int) ((long) nVertices * i / partitions);
+                int to = (int) ((long) nVertices * (i + 1) / partitions);
+                list.add(new RandomWalkIterator<>(graph, walkLength, rng.nextLong(), mode, from, to));
+            }
         }
 
         return list;
@@ -0,0 +1,295 @@
+package embedding;
+
+import org.neo4j.graphalgo.api.Graph;
+import org.neo4j.graphalgo.core.utils.ParallelUtil;
+import org.neo4j.graphdb.Direction;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Primitive CSR index over the out, in and both neighbourhoods of every node.
+ * <p>
+ * For every node the targets of its outgoing relationships are stored first,
+ * directly followed by the targets of its incoming relationships. The out
+ * neighbourhood is therefore {@code [outOffset, inOffset)}, the in neighbourhood
+ * {@code [inOffset, bothEnd)} and the both neighbourhood {@code [outOffset, bothEnd)}
+ * of the same {@code int[]}, so iterating any of them does not allocate.
+ * <p>
+ * An undirected index stores a single neighbourhood per node, which every direction returns.
+ * A sampled index stores at most a fixed number of neighbours per neighbourhood and remembers
+ * the degrees of the full graph.
+ */
+public class NeighbourhoodIndex {
+
+    private final int nodeCount;
+    // start of the out (and both) neighbourhood per node, nodeCount + 1 entries
+    private final int[] offsets;
+    // start of the in neighbourhood per node
+    private final int[] inOffsets;
+    // neighbour ids of all nodes
+    private final int[] targets;
+    // whether inOffsets is null and every direction is [offsets[node], offsets[node + 1])
+    private final boolean undirected;
+    // degrees before sampling, null if the index is not sampled; undirected indexes only use the out degrees
+    private final int[] originalOutDegrees;
+    private final int[] originalInDegrees;
+
+    private NeighbourhoodIndex(int nodeCount, int[] offsets, int[] inOffsets, int[] targets) {
+        this(nodeCount, offsets, inOffsets, targets, null, null);
+    }
+
+    private NeighbourhoodIndex(int nodeCount, int[] offsets, int[] inOffsets, int[] targets, int[] originalOutDegrees, int[] originalInDegrees) {
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.inOffsets = inOffsets;
+        this.targets = targets;
+        this.undirected = inOffsets == null;
+        this.originalOutDegrees = originalOutDegrees;
+        this.originalInDegrees = originalInDegrees;
+    }
+
+    /**
+     * builds the index once from the graph, filling the neighbourhoods in parallel
+     *
+     * @param graph           the graph
+     * @param executorService the executor service
+     * @param concurrency     desired number of threads to spawn
+     * @return the index
+     */
+    public static NeighbourhoodIndex build(Graph graph, ExecutorService executorService, int concurrency) {
+        final int nodeCount = Math.toIntExact(graph.nodeCount());
+        final int[] offsets = new int[nodeCount + 1];
+        final int[] inOffsets = new int[nodeCount];
+
+        long offset = 0;
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            offsets[nodeId] = Math.toIntExact(offset);
+            offset += graph.degree(nodeId, Direction.OUTGOING);
+            inOffsets[nodeId] = Math.toIntExact(offset);
+            offset += graph.degree(nodeId, Direction.INCOMING);
+        }
+        offsets[nodeCount] = Math.toIntExact(offset);
+
+        final int[] targets = new int[offsets[nodeCount]];
+        ParallelUtil.iterateParallel(executorService, nodeCount, concurrency, nodeId -> {
+            final int[] cursor = {offsets[nodeId]};
+            graph.forEachRelationship(nodeId, Direction.OUTGOING, (sourceNodeId, targetNodeId, relationId) -> {
+                targets[cursor[0]++] = targetNodeId;
+                return true;
+            });
+            cursor[0] = inOffsets[nodeId];
+            graph.forEachRelationship(nodeId, Direction.INCOMING, (sourceNodeId, targetNodeId, relationId) -> {
+                targets[cursor[0]++] = targetNodeId;
+                return true;
+            });
+        });
+
+        return new NeighbourhoodIndex(nodeCount, offsets, inOffsets, targets);
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the shared neighbour array, slice it with {@link #start(int, Direction)} and {@link #end(int, Direction)}
+     */
+    public int[] targets() {
+        return targets;
+    }
+
+    public int start(int nodeId, Direction direction) {
+        return direction == Direction.INCOMING && !undirected ? inOffsets[nodeId] : offsets[nodeId];
+    }
+
+    public int end(int nodeId, Direction direction) {
+        return direction == Direction.OUTGOING && !undirected ? inOffsets[nodeId] : offsets[nodeId + 1];
+    }
+
+    public boolean isUndirected() {
+        return undirected;
+    }
+
+    /**
+     * @return true if every relationship is stored in both directions, i.e. every out neighbourhood equals the in neighbourhood
+     */
+    public boolean isSymmetric(ExecutorService executorService, int concurrency) {
+        if (undirected) {
+            return true;
+        }
+        final AtomicBoolean symmetric = new AtomicBoolean(true);
+        ParallelUtil.iterateParallel(executorService, nodeCount, concurrency, nodeId -> {
+            if (!symmetric.get()) {
+                return;
+            }
+            if (degree(nodeId, Direction.OUTGOING) != degree(nodeId, Direction.INCOMING)) {
+                symmetric.set(false);
+                return;
+            }
+            final int[] out = neighbours(nodeId, Direction.OUTGOING);
+            final int[] in = neighbours(nodeId, Direction.INCOMING);
+            Arrays.sort(out);
+            Arrays.sort(in);
+            if (!Arrays.equals(out, in)) {
+                symmetric.set(false);
+            }
+        });
+        return symmetric.get();
+    }
+
+    /**
+     * @param symmetric whether {@link #isSymmetric(ExecutorService, int)} holds, then the out neighbourhoods are
+     *                  kept, otherwise the both neighbourhoods
+     * @return an undirected index whose single neighbourhood per node is returned for every direction
+     */
+    public NeighbourhoodIndex toUndirected(boolean symmetric, ExecutorService executorService, int concurrency) {
+        if (undirected) {
+            return this;
+        }
+        if (!symmetric) {
+            // the both neighbourhoods already are contiguous slices
+            return new NeighbourhoodIndex(nodeCount, offsets, null, targets);
+        }
+        final int[] undirectedOffsets = new int[nodeCount + 1];
+        long offset = 0;
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            undirectedOffsets[nodeId] = Math.toIntExact(offset);
+            offset += degree(nodeId, Direction.OUTGOING);
+        }
+        undirectedOffsets[nodeCount] = Math.toIntExact(offset);
+
+        final int[] undirectedTargets = new int[undirectedOffsets[nodeCount]];
+        ParallelUtil.iterateParallel(executorService, nodeCount, concurrency, nodeId -> {
+            final int start = offsets[nodeId];
+            System.arraycopy(targets, start, undirectedTargets, undirectedOffsets[nodeId], inOffsets[nodeId] - start);
+        });
+        return new NeighbourhoodIndex(nodeCount, undirectedOffsets, null, undirectedTargets);
+    }
+
+    /**
+     * sorts every neighbourhood in place, so membership can be tested with a binary search, see {@link #contains(int, int, Direction)}
+     *
+     * @return this index
+     */
+    public NeighbourhoodIndex sortNeighbourhoods(ExecutorService executorService, int concurrency) {
+        ParallelUtil.iterateParallel(executorService, nodeCount, concurrency, nodeId -> {
+            if (undirected) {
+                Arrays.sort(targets, offsets[nodeId], offsets[nodeId + 1]);
+            } else {
+                Arrays.sort(targets, offsets[nodeId], inOffsets[nodeId]);
+                Arrays.sort(targets, inOffsets[nodeId], offsets[nodeId + 1]);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return whether the neighbourhood contains the target, only valid after {@link #sortNeighbourhoods(ExecutorService, int)};
+     * directed indexes sort the out and in neighbourhoods separately, so their both neighbourhood is not supported,
+     * while the single neighbourhood of an undirected index is sorted as a whole and supports every direction
+     */
+    public boolean contains(int nodeId, int targetNodeId, Direction direction) {
+        return Arrays.binarySearch(targets, start(nodeId, direction), end(nodeId, direction), targetNodeId) >= 0;
+    }
+
+    public int degree(int nodeId, Direction direction) {
+        return end(nodeId, direction) - start(nodeId, direction);
+    }
+
+    /**
+     * @return the degree before sampling, the same as {@link #degree(int, Direction)} for indexes that are not sampled
+     */
+    public int originalDegree(int nodeId, Direction direction) {
+        if (originalOutDegrees == null) {
+            return degree(nodeId, direction);
+        }
+        if (undirected) {
+            return originalOutDegrees[nodeId];
+        }
+        switch (direction) {
+            case OUTGOING:
+                return originalOutDegrees[nodeId];
+            case INCOMING:
+                return originalInDegrees[nodeId];
+            default:
+                return originalOutDegrees[nodeId] + originalInDegrees[nodeId];
+        }
+    }
+
+    /**
+     * keeps at most {@code maxNeighbours} neighbours of every out and in neighbourhood, or of the single neighbourhood
+     * of an undirected index, chosen by reservoir sampling that is seeded per node and therefore deterministic
+     *
+     * @return the sampled index, the both neighbourhood holds up to twice {@code maxNeighbours} neighbours
+     */
+    public NeighbourhoodIndex sample(int maxNeighbours, long seed, ExecutorService executorService, int concurrency) {
+        if (maxNeighbours < 1) {
+            throw new IllegalArgumentException("maxNeighbours must be positive but was " + maxNeighbours);
+        }
+        final int[] sampledOffsets = new int[nodeCount + 1];
+        final int[] sampledInOffsets = undirected ? null : new int[nodeCount];
+        final int[] outDegrees = new int[nodeCount];
+        final int[] inDegrees = undirected ? null : new int[nodeCount];
+
+        long offset = 0;
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            sampledOffsets[nodeId] = Math.toIntExact(offset);
+            outDegrees[nodeId] = originalDegree(nodeId, Direction.OUTGOING);
+            offset += Math.min(maxNeighbours, degree(nodeId, Direction.OUTGOING));
+            if (!undirected) {
+                sampledInOffsets[nodeId] = Math.toIntExact(offset);
+                inDegrees[nodeId] = originalDegree(nodeId, Direction.INCOMING);
+                offset += Math.min(maxNeighbours, degree(nodeId, Direction.INCOMING));
+            }
+        }
+        sampledOffsets[nodeCount] = Math.toIntExact(offset);
+
+        final int[] sampledTargets = new int[sampledOffsets[nodeCount]];
+        ParallelUtil.iterateParallel(executorService, nodeCount, concurrency, nodeId -> {
+            final long nodeSeed = seed ^ (nodeId * 0x9E3779B97F4A7C15L);
+            sample(start(nodeId, Direction.OUTGOING), end(nodeId, Direction.OUTGOING), maxNeighbours, nodeSeed,
+                    sampledTargets, sampledOffsets[nodeId]);
+            if (!undirected) {
+                sample(start(nodeId, Direction.INCOMING), end(nodeId, Direction.INCOMING), maxNeighbours, ~nodeSeed,
+                        sampledTargets, sampledInOffsets[nodeId]);
+            }
+        });
+        return new NeighbourhoodIndex(nodeCount, sampledOffsets, sampledInOffsets, sampledTargets, outDegrees, inDegrees);
+    }
+
+    /**
+     * copies {@code targets[start, end)} or a reservoir sample of {@code k} of them in their original order
+     */
+    private void sample(int start, int end, int k, long seed, int[] sampled, int offset) {
+        final int degree = end - start;
+        if (degree <= k) {
+            System.arraycopy(targets, start, sampled, offset, degree);
+            return;
+        }
+        final int[] positions = new int[k];
+        for (int i = 0; i < k; i++) {
+            positions[i] = i;
+        }
+        final SplittableRandom random = new SplittableRandom(seed);
+        for (int i = k; i < degree; i++) {
+            final int j = random.nextInt(i + 1);
+            if (j < k) {
+                positions[j] = i;
+            }
+        }
+        Arrays.sort(positions);
+        for (int i = 0; i < k; i++) {
+            sampled[offset + i] = targets[start + positions[i]];
+        }
+    }
+
+    /**
+     * @return a copy of the neighbourhood, only meant for callers that need an exactly sized array
+     */
+    public int[] neighbours(int nodeId, Direction direction) {
+        return Arrays.copyOfRange(targets, start(nodeId, direction), end(nodeId, direction));
+    }
+}
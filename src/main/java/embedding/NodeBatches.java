@@ -0,0 +1,119 @@
+package embedding;
+
+import org.neo4j.graphdb.Direction;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contiguous node batches of roughly equal work, scheduled with fork-join work stealing.
+ * <p>
+ * A node weighs one plus its degree, so batches around hub nodes are short and
+ * batches of low-degree nodes are long. Idle workers steal halves of the remaining
+ * batch ranges instead of contending on a shared counter. The time spent in batches
+ * is accumulated per worker thread.
+ */
+public class NodeBatches {
+
+    /**
+     * processes the nodes {@code [from, to)}
+     */
+    public interface BatchConsumer {
+        void accept(int from, int to);
+    }
+
+    private final ForkJoinPool pool;
+    // batch i covers the nodes [bounds[i], bounds[i + 1])
+    private final int[] bounds;
+    private final Map<String, LongAdder> threadNanos = new ConcurrentHashMap<>();
+
+    private NodeBatches(ForkJoinPool pool, int[] bounds) {
+        this.pool = pool;
+        this.bounds = bounds;
+    }
+
+    /**
+     * splits the nodes of the index into batches whose weight matches {@code batchSize} average nodes
+     *
+     * @param index     the neighbourhood index providing the degrees
+     * @param batchSize average number of nodes per batch
+     * @param pool      the pool running the batches
+     * @return the batches
+     */
+    public static NodeBatches degreeWeighted(NeighbourhoodIndex index, int batchSize, ForkJoinPool pool) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive but was " + batchSize);
+        }
+        final int nodeCount = index.nodeCount();
+        final long totalWeight = (long) nodeCount + index.targets().length;
+        final double batchWeight = (double) batchSize * totalWeight / Math.max(1, nodeCount);
+
+        int[] bounds = new int[16];
+        int count = 1;
+        long weight = 0;
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            weight += 1 + index.degree(nodeId, Direction.BOTH);
+            if (weight >= batchWeight || nodeId == nodeCount - 1) {
+                if (count == bounds.length) {
+                    bounds = Arrays.copyOf(bounds, count * 2);
+                }
+                bounds[count++] = nodeId + 1;
+                weight = 0;
+            }
+        }
+        return new NodeBatches(pool, Arrays.copyOf(bounds, count));
+    }
+
+    public int batchCount() {
+        return bounds.length - 1;
+    }
+
+    /**
+     * runs the consumer once per batch and blocks until all batches are done
+     */
+    public void forEachBatch(BatchConsumer consumer) {
+        if (batchCount() > 0) {
+            pool.invoke(new BatchTask(consumer, 0, batchCount()));
+        }
+    }
+
+    /**
+     * @return the milliseconds every worker thread spent processing batches so far
+     */
+    public Map<String, Long> threadMillis() {
+        final Map<String, Long> millis = new TreeMap<>();
+        threadNanos.forEach((thread, nanos) -> millis.put(thread, TimeUnit.NANOSECONDS.toMillis(nanos.sum())));
+        return millis;
+    }
+
+    private final class BatchTask extends RecursiveAction {
+        private final BatchConsumer consumer;
+        private final int low;
+        private final int high;
+
+        BatchTask(BatchConsumer consumer, int low, int high) {
+            this.consumer = consumer;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low > 1) {
+                final int mid = (low + high) >>> 1;
+                invokeAll(new BatchTask(consumer, low, mid), new BatchTask(consumer, mid, high));
+                return;
+            }
+            final long start = System.nanoTime();
+            consumer.accept(bounds[low], bounds[low + 1]);
+            threadNanos.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder())
+                    .add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package embedding;
+
+import org.neo4j.graphalgo.core.ProcedureConfiguration;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The internal node ids a stream procedure returns, limited by the optional 'skip' and 'limit'
+ * config keys so that large embeddings can be fetched in pages.
+ */
+final class NodeRange {
+
+    // rows copied out of the embedding at once
+    static final int PAGE_SIZE = 1024;
+
+    final int from;
+    final int to;
+
+    NodeRange(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    static NodeRange of(ProcedureConfiguration configuration, long nodeCount) {
+        final long skip = configuration.getNumber("skip", 0L).longValue();
+        final long limit = configuration.getNumber("limit", Long.MAX_VALUE).longValue();
+        if (skip < 0 || limit < 0) {
+            throw new IllegalArgumentException("'skip' and 'limit' must not be negative, got " + skip + " and " + limit);
+        }
+        final long from = Math.min(skip, nodeCount);
+        return new NodeRange((int) from, (int) Math.min(nodeCount, from + Math.min(limit, nodeCount)));
+    }
+
+    /**
+     * streams the range page by page, a page is only materialized once the stream reaches it
+     *
+     * @param page the results of the nodes from..to
+     */
+    <T> Stream<T> pages(PageFunction<T> page) {
+        final int pages = (to - from + PAGE_SIZE - 1) / PAGE_SIZE;
+        return IntStream.range(0, pages).boxed().flatMap(p -> {
+            final int pageFrom = from + p * PAGE_SIZE;
+            return page.apply(pageFrom, Math.min(to, pageFrom + PAGE_SIZE));
+        });
+    }
+
+    interface PageFunction<T> {
+        Stream<T> apply(int from, int to);
+    }
+}
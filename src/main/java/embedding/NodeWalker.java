@@ -3,7 +3,6 @@ package embedding;
 import org.neo4j.graphalgo.api.Degrees;
 import org.neo4j.graphalgo.api.Graph;
 import org.neo4j.graphalgo.core.utils.ParallelUtil;
-import org.neo4j.graphalgo.core.utils.Pools;
 import org.neo4j.graphalgo.core.utils.QueueBasedSpliterator;
 import org.neo4j.graphalgo.core.utils.TerminationFlag;
 import org.neo4j.graphdb.Direction;
@@ -12,40 +11,58 @@ import org.neo4j.procedure.Name;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.PrimitiveIterator;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class NodeWalker {
+    /**
+     * the previous node passed to {@link org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy#getNextNode(int, int)}
+     * for the first step of a walk
+     */
+    public static final int NO_PREVIOUS_NODE = -1;
+
+    /**
+     * starts {@code walksPerNode} walks from every node, produced by {@code concurrency} walker threads
+     * <p>
+     * The walks are numbered round by round, walk {@code w} starts at node {@code w % nodeCount}, and
+     * every walker thread owns one contiguous range of walk numbers, so the start nodes of every thread
+     * only depend on the node count, the number of walks per node and the concurrency.
+     */
     public Stream<int[]> internalRandomWalk(@Name(value = "steps", defaultValue = "80") int steps, org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy strategy, TerminationFlag terminationFlag,
-                                            int concurrency, int limit, PrimitiveIterator.OfInt idStream) {
+                                            int concurrency, int nodeCount, int walksPerNode) {
         int timeout = 100;
         int queueSize = 1000;
-        int batchSize = ParallelUtil.adjustBatchSize(limit, concurrency, 100);
-        Collection<Runnable> tasks = new ArrayList<>((limit / batchSize) + 1);
+        final long walkCount = (long) nodeCount * walksPerNode;
+        Collection<Runnable> tasks = new ArrayList<>(concurrency);
 
         ArrayBlockingQueue<int[]> queue = new ArrayBlockingQueue<>(queueSize);
         int[] TOMB = new int[0];
 
-        while (idStream.hasNext()) {
-            int[] ids = new int[batchSize];
-            int i = 0;
-            while (i < batchSize && idStream.hasNext()) {
-                ids[i++] = idStream.nextInt();
-            }
-            int size = i;
+        for (int thread = 0; thread < concurrency; thread++) {
+            final long from = walkCount * thread / concurrency;
+            final long to = walkCount * (thread + 1) / concurrency;
             tasks.add(() -> {
-                for (int j = 0; j < size; j++) {
-                    put(queue, doInternalWalk(ids[j], steps, strategy, terminationFlag));
+                for (long walk = from; walk < to && terminationFlag.running(); walk++) {
+                    put(queue, doInternalWalk((int) (walk % nodeCount), steps, strategy, terminationFlag));
                 }
             });
         }
+        // a pool of its own: the walks block on the bounded queue until they are consumed, on the pool
+        // of the consumers they would hold the threads the consumers need, and a busy shared pool
+        // would delay walks past the timeout of the spliterator
+        final ForkJoinPool pool = new ForkJoinPool(concurrency);
         new Thread(() -> {
-            ParallelUtil.runWithConcurrency(concurrency, tasks, terminationFlag, Pools.DEFAULT);
-            put(queue, TOMB);
+            try {
+                ParallelUtil.run(tasks, pool);
+            } finally {
+                pool.shutdown();
+                put(queue, TOMB);
+            }
         }).start();
 
         QueueBasedSpliterator<int[]> spliterator = new QueueBasedSpliterator<>(queue, TOMB, terminationFlag, timeout);
@@ -55,7 +72,8 @@ public class NodeWalker {
     private int[] doInternalWalk(int startNodeId, int steps, org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy nextNodeStrategy, TerminationFlag terminationFlag) {
         int[] nodeIds = new int[steps + 1];
         int currentNodeId = startNodeId;
-        int previousNodeId = currentNodeId;
+        // no previous node before the first step
+        int previousNodeId = NO_PREVIOUS_NODE;
         nodeIds[0] = currentNodeId;
         for (int i = 1; i <= steps; i++) {
             int nextNodeId = nextNodeStrategy.getNextNode(currentNodeId, previousNodeId);
@@ -99,4 +117,129 @@ public class NodeWalker {
 
     }
 
+    /**
+     * Steps to a neighbour with probability proportional to the weight of the relationship.
+     * <p>
+     * The alias tables of all nodes are built once and stored in two flat arrays that run parallel to
+     * the targets of the neighbourhood index, so a step costs one random number and two array reads.
+     */
+    public static class WeightedNextNodeStrategy extends org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy {
+
+        private final NeighbourhoodIndex index;
+        private final double[] probability;
+        private final int[] alias;
+
+        private WeightedNextNodeStrategy(Graph graph, NeighbourhoodIndex index, double[] probability, int[] alias) {
+            super(graph, graph);
+            this.index = index;
+            this.probability = probability;
+            this.alias = alias;
+        }
+
+        /**
+         * @param graph a graph loaded with relationship weights, steps follow the both neighbourhood; relationships
+         *              with weight 0 are never followed unless all relationships of the node have weight 0, then
+         *              the step is uniform
+         * @throws IllegalArgumentException if a weight is negative or NaN
+         */
+        public static WeightedNextNodeStrategy build(Graph graph, ExecutorService executorService, int concurrency) {
+            final NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, executorService, concurrency);
+            // the weights are read in the same order as the index reads the targets, then replaced by the probabilities
+            final double[] probability = new double[index.targets().length];
+            final int[] alias = new int[probability.length];
+            ParallelUtil.iterateParallel(executorService, index.nodeCount(), concurrency, nodeId -> {
+                final int[] cursor = {index.start(nodeId, Direction.OUTGOING)};
+                graph.forEachRelationship(nodeId, Direction.OUTGOING, (sourceNodeId, targetNodeId, relationId, weight) -> {
+                    probability[cursor[0]++] = weight;
+                    return true;
+                });
+                cursor[0] = index.start(nodeId, Direction.INCOMING);
+                graph.forEachRelationship(nodeId, Direction.INCOMING, (sourceNodeId, targetNodeId, relationId, weight) -> {
+                    probability[cursor[0]++] = weight;
+                    return true;
+                });
+            });
+            // checked here rather than in the tables, so the caller gets the exception and not a worker thread
+            for (double weight : probability) {
+                if (weight < 0 || Double.isNaN(weight)) {
+                    throw new IllegalArgumentException("Relationship weights must not be negative, got " + weight);
+                }
+            }
+            ParallelUtil.iterateParallel(executorService, index.nodeCount(), concurrency, nodeId ->
+                    AliasTable.fill(probability, index.start(nodeId, Direction.BOTH), index.end(nodeId, Direction.BOTH), probability, alias));
+            return new WeightedNextNodeStrategy(graph, index, probability, alias);
+        }
+
+        @Override
+        public int getNextNode(int currentNodeId, int previousNodeId) {
+            final int start = index.start(currentNodeId, Direction.BOTH);
+            final int end = index.end(currentNodeId, Direction.BOTH);
+            if (start == end) {
+                return -1;
+            }
+            return index.targets()[start + AliasTable.sample(ThreadLocalRandom.current().nextDouble(), start, end, probability, alias)];
+        }
+    }
+
+    /**
+     * Second-order steps of node2vec, biased by the return parameter p and the in-out parameter q.
+     * <p>
+     * A neighbour of the current node is weighted 1/p if it is the previous node, 1 if it is also a
+     * neighbour of the previous node and 1/q otherwise. Instead of an alias table per edge, a uniformly
+     * drawn neighbour is accepted with its weight divided by the largest weight, which only needs a
+     * binary search in the sorted neighbourhood of the previous node, so memory stays linear in the
+     * number of relationships.
+     */
+    public static class Node2VecNextNodeStrategy extends org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy {
+
+        private final NeighbourhoodIndex index;
+        private final double returnWeight;
+        private final double inOutWeight;
+        private final double maxWeight;
+
+        /**
+         * @param index an undirected index with sorted neighbourhoods, see {@link NeighbourhoodIndex#sortNeighbourhoods}
+         */
+        public Node2VecNextNodeStrategy(Graph graph, NeighbourhoodIndex index, double returnParam, double inOutParam) {
+            super(graph, graph);
+            if (!index.isUndirected()) {
+                throw new IllegalArgumentException("node2vec walks need an undirected neighbourhood index");
+            }
+            if (!(returnParam > 0) || !(inOutParam > 0)) {
+                throw new IllegalArgumentException("Return and in-out parameters must be positive, got p=" + returnParam + ", q=" + inOutParam);
+            }
+            this.index = index;
+            this.returnWeight = 1 / returnParam;
+            this.inOutWeight = 1 / inOutParam;
+            this.maxWeight = Math.max(1, Math.max(returnWeight, inOutWeight));
+        }
+
+        @Override
+        public int getNextNode(int currentNodeId, int previousNodeId) {
+            final int start = index.start(currentNodeId, Direction.BOTH);
+            final int degree = index.end(currentNodeId, Direction.BOTH) - start;
+            if (degree == 0) {
+                return -1;
+            }
+            final int[] targets = index.targets();
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            // the first step of a walk has no previous node, a node with a self-loop can be its own previous node
+            if (previousNodeId == NO_PREVIOUS_NODE) {
+                return targets[start + random.nextInt(degree)];
+            }
+            while (true) {
+                final int candidate = targets[start + random.nextInt(degree)];
+                final double threshold = random.nextDouble() * maxWeight;
+                if (candidate == previousNodeId) {
+                    if (threshold < returnWeight) {
+                        return candidate;
+                    }
+                } else if (threshold < Math.min(1, inOutWeight)
+                        || threshold < (index.contains(previousNodeId, candidate, Direction.BOTH) ? 1 : inOutWeight)) {
+                    return candidate;
+                }
+            }
+        }
+    }
+
 }
@@ -4,23 +4,11 @@ package embedding;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
-import org.nd4j.linalg.ops.transforms.Transforms;
-import org.neo4j.graphalgo.api.Graph;
-import org.neo4j.graphalgo.core.IdMap;
-import org.neo4j.graphalgo.core.WeightMap;
-import org.neo4j.graphalgo.core.heavyweight.AdjacencyMatrix;
-import org.neo4j.graphalgo.core.heavyweight.HeavyGraph;
 import org.neo4j.graphalgo.core.utils.ProgressLogger;
-import org.neo4j.graphalgo.core.utils.RawValues;
-import org.neo4j.graphalgo.core.utils.dss.DisjointSetStruct;
-import org.neo4j.graphalgo.core.utils.paged.AllocationTracker;
-import org.neo4j.graphalgo.impl.DSSResult;
-import org.neo4j.graphalgo.impl.GraphUnionFind;
 
+import java.io.Serializable;
 import java.util.Arrays;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Random;
 
 
 public class Pruning {
@@ -28,6 +16,11 @@ public class Pruning {
     private final double lambda;
     private final ProgressLogger progressLogger;
 
+    // number of LSH bands, 0 compares every new feature with every earlier one
+    private int hashBands = 0;
+    private int rowsPerBand = 8;
+    private long hashSeed = 42L;
+
     public Pruning() {
         this(0.7, ProgressLogger.NULL_LOGGER);
     }
@@ -42,27 +35,42 @@ public class Pruning {
         this.progressLogger = progressLogger;
     }
 
-    public Embedding prune(Embedding prevEmbedding, Embedding embedding) {
+    /**
+     * Only compare feature pairs that are candidates of a locality-sensitive hash over the binned columns.
+     * <p>
+     * Every band samples {@code rowsPerBand} rows and buckets the columns by their bin values in these rows,
+     * so two columns that agree on a fraction {@code s} of the rows share a bucket with probability
+     * {@code 1 - (1 - s^rowsPerBand)^bands}. Pairs that never share a bucket are treated as distinct.
+     *
+     * @param bands       number of bands, 0 disables hashing
+     * @param rowsPerBand number of sampled rows per band
+     * @return itself for method chaining
+     */
+    public Pruning withLocalitySensitiveHashing(int bands, int rowsPerBand) {
+        if (bands < 0 || rowsPerBand < 1) {
+            throw new IllegalArgumentException("Invalid LSH configuration: bands=" + bands + ", rowsPerBand=" + rowsPerBand);
+        }
+        this.hashBands = bands;
+        this.rowsPerBand = rowsPerBand;
+        return this;
+    }
 
-        INDArray embeddingToPrune = Nd4j.hstack(prevEmbedding.getNDEmbedding(), embedding.getNDEmbedding());
-        Feature[] featuresToPrune = ArrayUtils.addAll(prevEmbedding.getFeatures(), embedding.getFeatures());
+    public Pruning withHashSeed(long seed) {
+        this.hashSeed = seed;
+        return this;
+    }
 
+    public Embedding prune(Embedding prevEmbedding, Embedding embedding) {
 
-        progressLogger.log("Feature Pruning: Creating features graph");
-        final Graph graph = loadFeaturesGraph(embeddingToPrune, prevEmbedding.features.length);
-        progressLogger.log("Feature Pruning: Created features graph");
+        FeatureMatrix embeddingToPrune = prevEmbedding.getEmbedding().concat(embedding.getEmbedding());
+        Feature[] featuresToPrune = ArrayUtils.addAll(prevEmbedding.getFeatures(), embedding.getFeatures());
 
         progressLogger.log("Feature Pruning: Finding features to keep");
-        int[] featureIdsToKeep = findConnectedComponents(graph)
-                .collect(Collectors.groupingBy(item -> item.setId))
-                .values()
-                .stream()
-                .mapToInt(results -> results.stream().mapToInt(value -> (int) value.nodeId).min().getAsInt())
-                .toArray();
+        int[] featureIdsToKeep = findFeaturesToKeep(embeddingToPrune, prevEmbedding.features.length);
         progressLogger.log("Feature Pruning: Found features to keep");
 
         progressLogger.log("Feature Pruning: Pruning embeddings");
-        INDArray prunedNDEmbedding = pruneEmbedding(embeddingToPrune, featureIdsToKeep);
+        FeatureMatrix prunedEmbedding = embeddingToPrune.selectColumns(featureIdsToKeep);
         progressLogger.log("Feature Pruning: Pruned embeddings");
 
 
@@ -73,146 +81,228 @@ public class Pruning {
         }
 
 
-        return new Embedding(prunedFeatures, prunedNDEmbedding);
+        return new Embedding(prunedFeatures, prunedEmbedding);
     }
 
-    private Stream<DisjointSetStruct.Result> findConnectedComponents(Graph graph) {
-        GraphUnionFind algo = new GraphUnionFind(graph);
-        DisjointSetStruct struct = algo.compute();
-        algo.release();
-        DSSResult dssResult = new DSSResult(struct);
-        return dssResult.resultStream(graph);
+    /**
+     * Unions every new feature with the earlier features it agrees with and keeps the
+     * lowest feature id of every resulting component, so features from earlier layers win.
+     *
+     * @return the ids of the features to keep in ascending order
+     */
+    int[] findFeaturesToKeep(FeatureMatrix embedding, int numPrevFeatures) {
+        progressLogger.log("Size of combined embedding: [" + embedding.rows() + ", " + embedding.columns() + "]");
+        progressLogger.log("Number of prev features: " + numPrevFeatures);
+
+        StopWatch timer = new StopWatch();
+        timer.start();
+        final FeatureSets sets = new FeatureSets(embedding.columns());
+        final int rows = embedding.rows();
+        final double newLambda = rows * lambda;
+        if (hashBands > 0) {
+            final long compared = unionCandidates(embedding, numPrevFeatures, sets, newLambda);
+            progressLogger.log("LSH compared pairs: " + compared);
+        } else {
+            for (int i = numPrevFeatures; i < embedding.columns(); i++) {
+                final FeatureMatrix.Column column = embedding.column(i);
+                for (int j = 0; j < i; j++) {
+                    if (!sets.connected(i, j) && agreement(column, embedding.column(j), rows) > newLambda) {
+                        sets.union(i, j);
+                    }
+                }
+            }
+        }
+        timer.stop();
+        progressLogger.log("Compared features: " + timer.getTime() + " ms");
+
+        return sets.roots();
     }
 
-    private Graph loadFeaturesGraph(INDArray embedding, int numPrevFeatures) {
-        AllocationTracker allocationTracker = AllocationTracker.create();
-        int nodeCount = embedding.columns();
+    /**
+     * Disjoint sets over feature ids whose root is always the lowest id of the set.
+     */
+    static final class FeatureSets {
+        private final int[] parent;
 
-        progressLogger.log("Creating IdMap - " + nodeCount + " nodes");
-        IdMap idMap = new IdMap(nodeCount);
+        FeatureSets(int size) {
+            parent = new int[size];
+            for (int i = 0; i < size; i++) {
+                parent[i] = i;
+            }
+        }
 
-        for (int i = 0; i < nodeCount; i++) {
-            idMap.add(i);
+        int find(int id) {
+            int root = id;
+            while (parent[root] != root) {
+                root = parent[root];
+            }
+            // path compression
+            while (parent[id] != root) {
+                final int next = parent[id];
+                parent[id] = root;
+                id = next;
+            }
+            return root;
         }
-        idMap.buildMappedIds();
-        progressLogger.log("Created IdMap");
-        progressLogger.log("Allocation: " + allocationTracker.getUsageString());
 
-        WeightMap relWeights = new WeightMap(nodeCount, 0, -1);
-        AdjacencyMatrix matrix = new AdjacencyMatrix(idMap.size(), false, allocationTracker);
-        progressLogger.log("Allocation: " + allocationTracker.getUsageString());
+        boolean connected(int a, int b) {
+            return find(a) == find(b);
+        }
 
+        void union(int a, int b) {
+            final int rootA = find(a);
+            final int rootB = find(b);
+            if (rootA < rootB) {
+                parent[rootB] = rootA;
+            } else if (rootB < rootA) {
+                parent[rootA] = rootB;
+            }
+        }
 
-        progressLogger.log("Size of combined embedding: " + Arrays.toString(embedding.shape()));
-        progressLogger.log("Number of prev features: " + numPrevFeatures);
-        progressLogger.log("Creating AdjacencyMatrix");
-
-        progressLogger.log("Adding columns to array");
-
-        progressLogger.log("Added columns to array");
-
-//        INDArray reusedArray = Nd4j.zeros(1, embedding.rows());
-//        int size = reusedArray.size(0);
-
-//        int[] degrees = new int[nodeCount];
-        int comparisons = 0;
-//        progressLogger.log("Calculating degree distribution");
-//        for (int i = numPrevFeatures; i < nodeCount; i++) {
-//            for (int j = 0; j < i; j++) {
-//                INDArray emb1 = embedding.getColumn(i);
-//                INDArray emb2 = embedding.getColumn(j);
-//
-////                double score = score(emb1, emb2);
-////                double score = score(reusedArray, emb1, emb2, size);
-//                double score = score(emb1.dup(), emb2, emb1.size(0));
-//                comparisons++;
-//
-//                if(score > lambda) {
-//                    degrees[idMap.get(i)]++;
-//                }
-//            }
-//        }
-//        progressLogger.log("Calculated degree distribution (" + comparisons + " comparisons)");
-//
-//        for (int i = 0; i < degrees.length; i++) {
-//            int degree = degrees[i];
-//            matrix.armOut(idMap.get(i), degree);
-//
-//        }
-//        progressLogger.log("Allocation: " + allocationTracker.getUsageString());
-//
-        StopWatch timer = new StopWatch();
-        timer.start();
-//        progressLogger.log("Populating adjacency matrix 1");
-//        for (int i = numPrevFeatures; i < nodeCount; i++) {
-//            for (int j = 0; j < i; j++) {
-//                INDArray emb1 = embedding.getColumn(i);
-//                INDArray emb2 = embedding.getColumn(j);
-//
-////                double score = score(emb1, emb2);
-////                double score = score(reusedArray, emb1, emb2, size);
-//                double score = score(emb1.dup(), emb2, emb1.size(0));
-//                comparisons++;
-//
-//                if(score > lambda) {
-//                    matrix.addOutgoing(idMap.get(i), idMap.get(j));
-//                }
-//            }
-//        }
-//        timer.stop();
-//        progressLogger.log("Populated adjacency matrix (orig): "  + timer.getTime() + " ms");
-//        progressLogger.log("Number of comparisons: " + comparisons);
-
-        timer.reset();
-        timer.start();
-        progressLogger.log("Populating adjacency matrix 2");
-        final INDArray transpose = embedding.transpose();
-        final INDArray zeros = Nd4j.zerosLike(transpose);
-        final double newLambda = transpose.columns() * lambda;
-        final INDArray temp = Nd4j.zerosLike(transpose);
-        for (int i = numPrevFeatures; i < embedding.columns(); i++) {
-            Nd4j.copy(transpose, temp);
-            final int[] total =
-                    temp.subiRowVector(transpose.getRow(i))
-                            .eqi(zeros)
-                            .sum(1)
-                            .toIntVector();
-            for (int j = 0; j < i; j++) {
-                final int score = total[j];
-                if (score > newLambda) {
-                    matrix.addOutgoing(idMap.get(i), idMap.get(j));
+        /**
+         * @return the root of every set in ascending order
+         */
+        int[] roots() {
+            int count = 0;
+            for (int i = 0; i < parent.length; i++) {
+                if (parent[i] == i) {
+                    count++;
+                }
+            }
+            final int[] roots = new int[count];
+            int index = 0;
+            for (int i = 0; i < parent.length; i++) {
+                if (parent[i] == i) {
+                    roots[index++] = i;
                 }
             }
+            return roots;
         }
-        transpose.cleanup();
-        zeros.cleanup();
-        temp.cleanup();
-        timer.stop();
-        progressLogger.log("Populated adjacency matrix (new): " + timer.getTime() + " ms");
-        progressLogger.log("Created Adjacency Matrix");
+    }
 
-        return new HeavyGraph(idMap, matrix, relWeights, null);
+    /**
+     * @return number of rows in which both columns hold the same bin
+     */
+    private static int agreement(FeatureMatrix.Column column, FeatureMatrix.Column other, int rows) {
+        int score = 0;
+        for (int row = 0; row < rows; row++) {
+            if (column.get(row) == other.get(row)) {
+                score++;
+            }
+        }
+        return score;
     }
 
-    private INDArray pruneEmbedding(INDArray origEmbedding, int... featIdsToKeep) {
-        INDArray ndPrunedEmbedding = Nd4j.create(origEmbedding.shape());
-        Nd4j.copy(origEmbedding, ndPrunedEmbedding);
-        return ndPrunedEmbedding.getColumns(featIdsToKeep);
+    /**
+     * Buckets the columns by the hash of their values in a few sampled rows, once per band, and unions the new
+     * features with the members of their buckets they agree with.
+     * <p>
+     * Every bucket keeps a list of representatives, the earlier features and the new features that did not join
+     * any representative. A new feature is only compared with the representatives it is not connected to yet, so
+     * a bucket of k equal columns costs k comparisons in the first band and none in later bands instead of k^2
+     * per band.
+     *
+     * @return number of compared pairs
+     */
+    long unionCandidates(FeatureMatrix embedding, int numPrevFeatures, FeatureSets sets, double threshold) {
+        final int rows = embedding.rows();
+        final int columns = embedding.columns();
+        if (rows == 0 || columns <= numPrevFeatures) {
+            return 0;
+        }
+
+        final Random random = new Random(hashSeed);
+        final int[] sampledRows = new int[rowsPerBand];
+        // hash in the upper, column id in the lower 32 bits so that sorting groups the buckets
+        final long[] keys = new long[columns];
+        final int[] representatives = new int[columns];
+        long compared = 0;
+
+        for (int band = 0; band < hashBands; band++) {
+            for (int i = 0; i < rowsPerBand; i++) {
+                sampledRows[i] = random.nextInt(rows);
+            }
+            for (int column = 0; column < columns; column++) {
+                final FeatureMatrix.Column values = embedding.column(column);
+                long hash = band;
+                for (int row : sampledRows) {
+                    hash = (hash ^ Double.doubleToLongBits(values.get(row))) * 0x9E3779B97F4A7C15L;
+                }
+                keys[column] = ((hash ^ (hash >>> 32)) << 32) | column;
+            }
+            Arrays.sort(keys);
+
+            int bucketStart = 0;
+            while (bucketStart < columns) {
+                final long bucket = keys[bucketStart] >>> 32;
+                int bucketEnd = bucketStart + 1;
+                while (bucketEnd < columns && keys[bucketEnd] >>> 32 == bucket) {
+                    bucketEnd++;
+                }
+                // column ids ascend within a bucket, so the earlier features come first
+                int representativeCount = 0;
+                for (int a = bucketStart; a < bucketEnd && bucketEnd - bucketStart > 1; a++) {
+                    final int i = (int) keys[a];
+                    boolean represented = false;
+                    if (i >= numPrevFeatures) {
+                        final FeatureMatrix.Column column = embedding.column(i);
+                        for (int r = 0; r < representativeCount; r++) {
+                            final int j = representatives[r];
+                            if (sets.connected(i, j)) {
+                                represented = true;
+                                continue;
+                            }
+                            compared++;
+                            if (agreement(column, embedding.column(j), rows) > threshold) {
+                                sets.union(i, j);
+                                represented = true;
+                            }
+                        }
+                    }
+                    if (!represented) {
+                        representatives[representativeCount++] = i;
+                    }
+                }
+                bucketStart = bucketEnd;
+            }
+        }
+        return compared;
     }
 
+    public static class Feature implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-    public static class Feature {
         private final String name;
         private final Feature prev;
+        // position in the FeatureDag that created the feature, -1 if it was not interned
+        private final int id;
+        private final int hash;
 
         public Feature(String name, Feature prev) {
-            this.name = name;
-            this.prev = prev;
+            this(name, prev, -1);
         }
 
         public Feature(String name) {
-            this.prev = null;
+            this(name, null, -1);
+        }
+
+        Feature(String name, Feature prev, int id) {
             this.name = name;
+            this.prev = prev;
+            this.id = id;
+            this.hash = 31 * name.hashCode() + (prev == null ? 0 : prev.hash);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Feature getPrev() {
+            return prev;
+        }
+
+        public int getId() {
+            return id;
         }
 
         @Override
@@ -220,27 +310,53 @@ public class Pruning {
             return prev == null ? name : name + "( " + prev.toString() + ")";
         }
 
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return (obj instanceof Feature) && toString().equals(obj.toString());
+            if (!(obj instanceof Feature)) {
+                return false;
+            }
+            Feature a = this;
+            Feature b = (Feature) obj;
+            // interned chains share their tails, so the walk usually stops at the first shared instance
+            while (a != b) {
+                if (a == null || b == null || a.hash != b.hash || !a.name.equals(b.name)) {
+                    return false;
+                }
+                a = a.prev;
+                b = b.prev;
+            }
+            return true;
         }
     }
 
     static class Embedding {
-        private INDArray ndEmbedding;
+        private FeatureMatrix embedding;
         private Feature[] features;
 
-        public Embedding(Feature[] Features, INDArray ndEmbedding) {
+        public Embedding(Feature[] Features, FeatureMatrix embedding) {
             this.features = Features;
-            this.ndEmbedding = ndEmbedding;
+            this.embedding = embedding;
+        }
+
+        public Embedding(Feature[] Features, INDArray ndEmbedding) {
+            this(Features, FeatureMatrix.of(ndEmbedding));
         }
 
         public Feature[] getFeatures() {
             return features;
         }
 
+        public FeatureMatrix getEmbedding() {
+            return embedding;
+        }
+
         public INDArray getNDEmbedding() {
-            return ndEmbedding;
+            return embedding.toINDArray();
         }
     }
 
@@ -0,0 +1,85 @@
+package embedding;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.stream.IntStream;
+
+/**
+ * A node x dimension embedding that copies ranges of consecutive rows at once.
+ */
+public interface RowSource {
+
+    int rows();
+
+    int dimensions();
+
+    /**
+     * copies the rows from..to one after the other into the target, which needs at least
+     * {@code (to - from) * dimensions()} entries
+     */
+    void copyRows(int from, int to, double[] target);
+
+    static RowSource of(FeatureMatrix matrix) {
+        return new RowSource() {
+            @Override
+            public int rows() {
+                return matrix.rows();
+            }
+
+            @Override
+            public int dimensions() {
+                return matrix.columns();
+            }
+
+            @Override
+            public void copyRows(int from, int to, double[] target) {
+                matrix.copyRows(from, to, target);
+            }
+        };
+    }
+
+    static RowSource of(double[][] rows, int dimensions) {
+        return new RowSource() {
+            @Override
+            public int rows() {
+                return rows.length;
+            }
+
+            @Override
+            public int dimensions() {
+                return dimensions;
+            }
+
+            @Override
+            public void copyRows(int from, int to, double[] target) {
+                for (int row = from; row < to; row++) {
+                    System.arraycopy(rows[row], 0, target, (row - from) * dimensions, dimensions);
+                }
+            }
+        };
+    }
+
+    static RowSource of(INDArray vectors) {
+        return new RowSource() {
+            @Override
+            public int rows() {
+                return vectors.rows();
+            }
+
+            @Override
+            public int dimensions() {
+                return vectors.columns();
+            }
+
+            @Override
+            public void copyRows(int from, int to, double[] target) {
+                INDArray rows = vectors.getRows(IntStream.range(from, to).toArray());
+                if (rows.ordering() != 'c') {
+                    rows = rows.dup('c');
+                }
+                final double[] data = rows.data().asDouble();
+                System.arraycopy(data, 0, target, 0, data.length);
+            }
+        };
+    }
+}
@@ -0,0 +1,260 @@
+package embedding;
+
+import org.deeplearning4j.graph.models.deepwalk.GraphHuffman;
+import org.neo4j.graphalgo.core.utils.ParallelUtil;
+import org.neo4j.graphalgo.core.utils.TerminationFlag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Skip-gram over random walks, trained by several threads at once without any locking (Hogwild).
+ * <p>
+ * The node vectors and the output vectors are stored in two shared row-major arrays. Threads
+ * update them in place, so an update of a row can occasionally overwrite a concurrent update of
+ * the same row, which stochastic gradient descent tolerates as long as most updates touch
+ * different rows. Every thread accumulates the error of its current node in its own buffer.
+ * <p>
+ * With hierarchical softmax the output vectors belong to the inner nodes of the Huffman tree of
+ * the node degrees, and a single update is the same as {@code InMemoryGraphLookupTable.iterate}.
+ * With negative sampling they belong to the nodes, and every update also pushes the node away
+ * from a few nodes drawn with probability proportional to degree^0.75, as in word2vec.
+ */
+public class SkipGram implements RowSource {
+
+    public enum Trainer {
+        HIERARCHICAL_SOFTMAX,
+        NEGATIVE_SAMPLING;
+
+        public static Trainer parse(String trainer) {
+            switch (trainer.toLowerCase()) {
+                case "softmax":
+                case "hierarchical":
+                    return HIERARCHICAL_SOFTMAX;
+                case "negative":
+                    return NEGATIVE_SAMPLING;
+                default:
+                    throw new IllegalArgumentException("Unknown trainer: " + trainer + ", expected 'softmax' or 'negative'");
+            }
+        }
+    }
+
+    // walks a thread takes from the shared walk iterator at once
+    private static final int WALK_BATCH = 16;
+    private static final double NEGATIVE_SAMPLING_POWER = 0.75;
+
+    private final int nodeCount;
+    private final int dimensions;
+    private final double learningRate;
+    // nodeCount x dimensions
+    private final double[] vectors;
+    // one row per inner tree node or per node, see the class comment
+    private final double[] outputVectors;
+
+    // hierarchical softmax only
+    private final GraphHuffman tree;
+    // negative sampling only
+    private final AliasTable negativeTable;
+    private final int negatives;
+    // initializes the vectors, the generators of the training threads are split off it
+    private final SplittableRandom random;
+
+    private SkipGram(int nodeCount, int dimensions, double learningRate, int outputRows, GraphHuffman tree, AliasTable negativeTable, int negatives, long seed) {
+        this.nodeCount = nodeCount;
+        this.dimensions = dimensions;
+        this.learningRate = learningRate;
+        this.tree = tree;
+        this.negativeTable = negativeTable;
+        this.negatives = negatives;
+        this.vectors = new double[Math.multiplyExact(nodeCount, dimensions)];
+        this.outputVectors = new double[Math.multiplyExact(outputRows, dimensions)];
+        this.random = new SplittableRandom(seed);
+
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = (random.nextDouble() - 0.5) / dimensions;
+        }
+        if (tree != null) {
+            for (int i = 0; i < outputVectors.length; i++) {
+                outputVectors[i] = (random.nextDouble() - 0.5) / dimensions;
+            }
+        }
+    }
+
+    /**
+     * @param seed seeds the initial vectors and the generators of the training threads
+     */
+    public static SkipGram hierarchicalSoftmax(int nodeCount, int dimensions, GraphHuffman tree, double learningRate, long seed) {
+        return new SkipGram(nodeCount, dimensions, learningRate, Math.max(0, nodeCount - 1), tree, null, 0, seed);
+    }
+
+    /**
+     * @param degrees   the degree of every node, nodes without neighbours are never drawn as negatives
+     * @param negatives number of negative samples per update
+     * @param seed      seeds the initial vectors and the negative samples of the training threads
+     */
+    public static SkipGram negativeSampling(int[] degrees, int dimensions, int negatives, double learningRate, long seed) {
+        if (negatives <= 0) {
+            throw new IllegalArgumentException("Number of negatives must be positive, got " + negatives);
+        }
+        final double[] weights = new double[degrees.length];
+        for (int node = 0; node < degrees.length; node++) {
+            weights[node] = Math.pow(degrees[node], NEGATIVE_SAMPLING_POWER);
+        }
+        return new SkipGram(degrees.length, dimensions, learningRate, degrees.length, null, new AliasTable(weights), negatives, seed);
+    }
+
+    /**
+     * trains on all walks of the iterator with the given number of threads of the executor,
+     * the walks must not be produced on the same executor as the workers block until walks arrive.
+     * Every thread gets a generator split off the seeded one, updates of several threads still
+     * interleave, so only a single thread trains reproducibly.
+     */
+    public void train(Iterator<int[]> walks, int windowSize, ExecutorService executorService, int concurrency, TerminationFlag terminationFlag) {
+        // split on the calling thread, SplittableRandom is not thread-safe
+        final List<Worker> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(new Worker(walks, windowSize, random.split(), terminationFlag));
+        }
+        ParallelUtil.run(workers, executorService);
+    }
+
+    private final class Worker implements Runnable {
+        private final Iterator<int[]> walks;
+        private final int windowSize;
+        private final TerminationFlag terminationFlag;
+        private final int[][] batch = new int[WALK_BATCH][];
+        private final double[] error = new double[dimensions];
+        private final SplittableRandom random;
+
+        Worker(Iterator<int[]> walks, int windowSize, SplittableRandom random, TerminationFlag terminationFlag) {
+            this.walks = walks;
+            this.windowSize = windowSize;
+            this.random = random;
+            this.terminationFlag = terminationFlag;
+        }
+
+        @Override
+        public void run() {
+            while (terminationFlag.running()) {
+                int size = 0;
+                synchronized (walks) {
+                    while (size < WALK_BATCH && walks.hasNext()) {
+                        batch[size++] = walks.next();
+                    }
+                }
+                if (size == 0) {
+                    return;
+                }
+                for (int i = 0; i < size; i++) {
+                    train(batch[i]);
+                    batch[i] = null;
+                }
+            }
+        }
+
+        private void train(int[] walk) {
+            for (int mid = windowSize; mid < walk.length - windowSize; mid++) {
+                for (int pos = mid - windowSize; pos <= mid + windowSize; pos++) {
+                    if (pos == mid) {
+                        continue;
+                    }
+                    if (tree != null) {
+                        iterate(walk[mid], walk[pos], error);
+                    } else {
+                        iterateNegative(walk[mid], walk[pos], error, random);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * moves the vector of the first node towards predicting the path of the second node in the tree
+     */
+    void iterate(int first, int second, double[] error) {
+        final int vectorOffset = first * dimensions;
+        final int codeLength = tree.getCodeLength(second);
+        final long code = tree.getCode(second);
+        final int[] innerNodes = tree.getPathInnerNodes(second);
+
+        Arrays.fill(error, 0);
+        for (int i = 0; i < codeLength; i++) {
+            final int innerOffset = innerNodes[i] * dimensions;
+            final double gradient = learningRate * (sigmoid(dot(vectorOffset, innerOffset)) - ((code & (1L << i)) != 0 ? 1 : 0));
+            for (int d = 0; d < dimensions; d++) {
+                error[d] += gradient * outputVectors[innerOffset + d];
+                outputVectors[innerOffset + d] -= gradient * vectors[vectorOffset + d];
+            }
+        }
+        for (int d = 0; d < dimensions; d++) {
+            vectors[vectorOffset + d] -= error[d];
+        }
+    }
+
+    /**
+     * moves the vector of the first node towards the output vector of the second node and away from sampled nodes
+     */
+    void iterateNegative(int first, int second, double[] error, SplittableRandom random) {
+        final int vectorOffset = first * dimensions;
+
+        Arrays.fill(error, 0);
+        for (int sample = 0; sample <= negatives; sample++) {
+            final int target;
+            final int label;
+            if (sample == 0) {
+                target = second;
+                label = 1;
+            } else {
+                target = negativeTable.sample(random.nextDouble());
+                if (target == second) {
+                    continue;
+                }
+                label = 0;
+            }
+            final int outputOffset = target * dimensions;
+            final double gradient = learningRate * (sigmoid(dot(vectorOffset, outputOffset)) - label);
+            for (int d = 0; d < dimensions; d++) {
+                error[d] += gradient * outputVectors[outputOffset + d];
+                outputVectors[outputOffset + d] -= gradient * vectors[vectorOffset + d];
+            }
+        }
+        for (int d = 0; d < dimensions; d++) {
+            vectors[vectorOffset + d] -= error[d];
+        }
+    }
+
+    private double dot(int vectorOffset, int outputOffset) {
+        double dot = 0;
+        for (int d = 0; d < dimensions; d++) {
+            dot += vectors[vectorOffset + d] * outputVectors[outputOffset + d];
+        }
+        return dot;
+    }
+
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    public double[] vector(int nodeId) {
+        return Arrays.copyOfRange(vectors, nodeId * dimensions, (nodeId + 1) * dimensions);
+    }
+
+    @Override
+    public int rows() {
+        return nodeCount;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void copyRows(int from, int to, double[] target) {
+        System.arraycopy(vectors, from * dimensions, target, 0, (to - from) * dimensions);
+    }
+}
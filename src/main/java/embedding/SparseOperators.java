@@ -0,0 +1,142 @@
+package embedding;
+
+import org.neo4j.graphdb.Direction;
+
+/**
+ * Relational operators as kernels over the CSR adjacency of a {@link NeighbourhoodIndex}.
+ * <p>
+ * Every kernel reads a dense row-major block {@code x} of {@code nodeCount x width} feature values
+ * and writes one row per node of {@code [from, to)} into {@code y}, starting at row 0. Sum is a
+ * sparse-dense matrix multiplication, the other operators are segmented reductions over the neighbour
+ * slices of the same CSR arrays. Nodes with an empty neighbourhood get zeros, like in the other
+ * execution modes.
+ */
+final class SparseOperators {
+
+    private SparseOperators() {
+    }
+
+    /**
+     * y = A x
+     */
+    static void sum(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y) {
+        final int[] targets = index.targets();
+        for (int node = from; node < to; node++) {
+            final int row = (node - from) * width;
+            clear(y, row, width);
+            for (int i = index.start(node, direction), end = index.end(node, direction); i < end; i++) {
+                final int other = targets[i] * width;
+                for (int f = 0; f < width; f++) {
+                    y[row + f] += x[other + f];
+                }
+            }
+        }
+    }
+
+    /**
+     * y = D^-1 A x
+     */
+    static void mean(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y) {
+        sum(index, direction, x, width, from, to, y);
+        for (int node = from; node < to; node++) {
+            final int degree = index.degree(node, direction);
+            if (degree > 1) {
+                final int row = (node - from) * width;
+                for (int f = 0; f < width; f++) {
+                    y[row + f] /= degree;
+                }
+            }
+        }
+    }
+
+    static void max(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y) {
+        final int[] targets = index.targets();
+        for (int node = from; node < to; node++) {
+            final int row = (node - from) * width;
+            final int start = index.start(node, direction);
+            final int end = index.end(node, direction);
+            if (start == end) {
+                clear(y, row, width);
+                continue;
+            }
+            System.arraycopy(x, targets[start] * width, y, row, width);
+            for (int i = start + 1; i < end; i++) {
+                final int other = targets[i] * width;
+                for (int f = 0; f < width; f++) {
+                    y[row + f] = Math.max(y[row + f], x[other + f]);
+                }
+            }
+        }
+    }
+
+    static void hadamard(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y) {
+        final int[] targets = index.targets();
+        for (int node = from; node < to; node++) {
+            final int row = (node - from) * width;
+            final int start = index.start(node, direction);
+            final int end = index.end(node, direction);
+            if (start == end) {
+                clear(y, row, width);
+                continue;
+            }
+            System.arraycopy(x, targets[start] * width, y, row, width);
+            for (int i = start + 1; i < end; i++) {
+                final int other = targets[i] * width;
+                for (int f = 0; f < width; f++) {
+                    y[row + f] *= x[other + f];
+                }
+            }
+        }
+    }
+
+    /**
+     * exp(-sum((x_u - x_v)^2) / sigma^2) over the neighbours u of v
+     */
+    static void rbf(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y, double sigma) {
+        final int[] targets = index.targets();
+        for (int node = from; node < to; node++) {
+            final int row = (node - from) * width;
+            final int self = node * width;
+            clear(y, row, width);
+            final int start = index.start(node, direction);
+            final int end = index.end(node, direction);
+            if (start == end) {
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                final int other = targets[i] * width;
+                for (int f = 0; f < width; f++) {
+                    final double diff = x[other + f] - x[self + f];
+                    y[row + f] += diff * diff;
+                }
+            }
+            for (int f = 0; f < width; f++) {
+                y[row + f] = Math.exp(y[row + f] / (-sigma * sigma));
+            }
+        }
+    }
+
+    /**
+     * sum(|x_u - x_v|) over the neighbours u of v
+     */
+    static void l1Norm(NeighbourhoodIndex index, Direction direction, double[] x, int width, int from, int to, double[] y) {
+        final int[] targets = index.targets();
+        for (int node = from; node < to; node++) {
+            final int row = (node - from) * width;
+            final int self = node * width;
+            clear(y, row, width);
+            for (int i = index.start(node, direction), end = index.end(node, direction); i < end; i++) {
+                final int other = targets[i] * width;
+                for (int f = 0; f < width; f++) {
+                    y[row + f] += Math.abs(x[other + f] - x[self + f]);
+                }
+            }
+        }
+    }
+
+    private static void clear(double[] y, int offset, int width) {
+        for (int f = 0; f < width; f++) {
+            y[offset + f] = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package embedding;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class AliasTableTest {
+
+    @Test
+    public void samplesProportionallyToTheWeights() {
+        final double[] weights = {1, 0, 3, 6};
+        final AliasTable table = new AliasTable(weights);
+
+        final SplittableRandom random = new SplittableRandom(42);
+        final int[] counts = new int[weights.length];
+        final int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            counts[table.sample(random.nextDouble())]++;
+        }
+
+        assertEquals(0, counts[1]);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 10, (double) counts[i] / samples, 0.01);
+        }
+    }
+
+    @Test
+    public void samplesUniformlyWithoutWeights() {
+        final AliasTable table = new AliasTable(new double[3]);
+
+        assertEquals(0, table.sample(0.0));
+        assertEquals(1, table.sample(0.5));
+        assertEquals(2, table.sample(0.99));
+    }
+
+    @Test
+    public void flatTablesSampleEverySliceOnItsOwn() {
+        // two nodes with the neighbour weights {1, 3} and {0, 5, 0}, built in place
+        final double[] probability = {1, 3, 0, 5, 0};
+        final int[] alias = new int[probability.length];
+        AliasTable.fill(probability, 0, 2, probability, alias);
+        AliasTable.fill(probability, 2, 5, probability, alias);
+
+        final SplittableRandom random = new SplittableRandom(42);
+        final int[] first = new int[2];
+        final int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            first[AliasTable.sample(random.nextDouble(), 0, 2, probability, alias)]++;
+            assertEquals(1, AliasTable.sample(random.nextDouble(), 2, 5, probability, alias));
+        }
+        assertEquals(0.25, (double) first[0] / samples, 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeWeights() {
+        new AliasTable(new double[]{1, -1});
+    }
+}
@@ -3,8 +3,14 @@ package embedding;
 
 import org.junit.Test;
 import org.nd4j.linalg.factory.Nd4j;
+import org.neo4j.graphalgo.core.utils.Pools;
 
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 public class BinningTest {
 
@@ -58,5 +64,97 @@ public class BinningTest {
 
         System.out.println("embedding = \n" + Nd4j.create(embedding));
     }
-}
 
+    @Test
+    public void testLogBinsFeatureMatrix() {
+
+        double[][] embedding = new double[][]{
+                {1, 2, 3},
+                {4, 5, 6},
+                {3, 1, 5},
+                {3, 1, 0},
+                {1, 2, 1},
+                {4, 5, 8},
+                {3, 1, 20},
+                {3, 1, 5},
+        };
+
+        FeatureMatrix matrix = FeatureMatrix.of(embedding);
+
+        Binning binning = new Binning();
+        binning.logBins(matrix);
+
+        // lowest half of every column in bin 0, next quarter in bin 1, ...
+        assertArrayEquals(new double[]{0, 1, 0, 0, 0, 2, 3, 1}, column(matrix, 2), 0.0);
+        for (int column = 0; column < matrix.columns(); column++) {
+            double[] bins = column(matrix, column);
+            Arrays.sort(bins);
+            assertArrayEquals(new double[]{0, 0, 0, 0, 1, 1, 2, 3}, bins, 0.0);
+        }
+    }
+
+    @Test
+    public void parallelLogBinsMatchSortedRanks() {
+        Random random = new Random(42);
+        int rows = 1000;
+        FeatureMatrix matrix = FeatureMatrix.create(rows, 16, FeatureMatrix.Storage.HEAP);
+        for (int column = 0; column < matrix.columns(); column++) {
+            for (int row = 0; row < rows; row++) {
+                // few distinct values in the low columns to exercise ties
+                matrix.set(row, column, random.nextInt(column < 4 ? 3 : 1_000_000));
+            }
+        }
+        FeatureMatrix expected = matrix.copy();
+
+        new Binning().logBins(matrix, Pools.DEFAULT, 4);
+
+        for (int column = 0; column < matrix.columns(); column++) {
+            double[] values = column(expected, column);
+            Integer[] ranked = new Integer[rows];
+            for (int row = 0; row < rows; row++) {
+                ranked[row] = row;
+            }
+            Arrays.sort(ranked, Comparator.<Integer>comparingDouble(row -> values[row]).thenComparingInt(row -> row));
+
+            int remaining = rows;
+            int binNumber = 0;
+            double[] bins = new double[rows];
+            for (int rank = 0; rank < rows; rank++) {
+                if (rank + remaining == rows) {
+                    remaining /= 2;
+                    binNumber++;
+                }
+                bins[ranked[rank]] = binNumber - 1;
+            }
+
+            assertArrayEquals(bins, column(matrix, column), 0.0);
+        }
+    }
+
+    @Test
+    public void upperBoundsReproduceTheBinsOfDistinctValues() {
+        Random random = new Random(7);
+        int rows = 500;
+        FeatureMatrix matrix = FeatureMatrix.create(rows, 3, FeatureMatrix.Storage.HEAP);
+        for (int column = 0; column < matrix.columns(); column++) {
+            for (int row = 0; row < rows; row++) {
+                matrix.set(row, column, random.nextDouble());
+            }
+        }
+        FeatureMatrix values = matrix.copy();
+
+        double[][] upperBounds = new Binning().logBins(matrix, Pools.DEFAULT, 2);
+
+        for (int column = 0; column < matrix.columns(); column++) {
+            for (int row = 0; row < rows; row++) {
+                assertEquals(matrix.get(row, column), Binning.bin(values.get(row, column), upperBounds[column]), 0.0);
+            }
+        }
+    }
+
+    private static double[] column(FeatureMatrix matrix, int column) {
+        double[] values = new double[matrix.rows()];
+        matrix.column(column).copyTo(values);
+        return values;
+    }
+}
@@ -4,15 +4,28 @@ package embedding;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.neo4j.graphdb.QueryExecutionException;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.internal.kernel.api.exceptions.KernelException;
 import org.neo4j.kernel.impl.proc.Procedures;
 import org.neo4j.kernel.internal.GraphDatabaseAPI;
 
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 
 public class DeepGLIntegrationTest {
 
@@ -45,9 +58,9 @@ public class DeepGLIntegrationTest {
             tx.success();
         }
 
-        db.getDependencyResolver()
-                .resolveDependency(Procedures.class)
-                .registerProcedure(DeepGLProc.class);
+        Procedures procedures = db.getDependencyResolver().resolveDependency(Procedures.class);
+        procedures.registerProcedure(DeepGLProc.class);
+        procedures.registerFunction(DeepGLProc.class);
 
     }
 
@@ -66,6 +79,170 @@ public class DeepGLIntegrationTest {
         }
     }
 
+    @Test
+    public void streamWithNDArrayOperators() throws Exception {
+
+        Map<Long, double[]> fused = new HashMap<>();
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {mode: 'fused'})")
+                .forEachRemaining(row -> fused.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        Result result = db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {mode: 'ndarray'})");
+        int rows = 0;
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertArrayEquals(fused.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+            rows++;
+        }
+        assertEquals(fused.size(), rows);
+    }
+
+    @Test
+    public void matrixOperatorsMatchFusedOperators() throws Exception {
+
+        Map<Long, double[]> fused = new HashMap<>();
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {mode: 'fused'})")
+                .forEachRemaining(row -> fused.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        Result result = db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {mode: 'matrix'})");
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertArrayEquals(fused.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+        }
+    }
+
+    @Test
+    public void diffusionStopsOnceConverged() throws Exception {
+        // the tree of the other tests is bipartite, diffusing over it oscillates instead of converging;
+        // every feature of these two cycles is constant per cycle, so the first diffusion already converges
+        try (Transaction tx = db.beginTx()) {
+            db.execute("CREATE (a:Cycle {prop: 1}), (b:Cycle {prop: 1}), (c:Cycle {prop: 1}),\n" +
+                    " (d:Cycle {prop: 5}), (e:Cycle {prop: 5}), (f:Cycle {prop: 5}), (g:Cycle {prop: 5}),\n" +
+                    " (a)-[:NEXT]->(b), (b)-[:NEXT]->(c), (c)-[:NEXT]->(a),\n" +
+                    " (d)-[:NEXT]->(e), (e)-[:NEXT]->(f), (f)-[:NEXT]->(g), (g)-[:NEXT]->(d)");
+            tx.success();
+        }
+
+        String config = "nodeFeatures: ['prop'], iterations: 1, pruningLambda: 1.0, diffusions: 100";
+        Map<Long, double[]> allIterations = new HashMap<>();
+        db.execute("CALL embedding.deepgl.stream('Cycle', 'NEXT', {" + config + ", model: 'diffusedAll'})")
+                .forEachRemaining(row -> allIterations.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        Result result = db.execute("CALL embedding.deepgl.stream('Cycle', 'NEXT', {" + config + ", diffusionEpsilon: 0.001, model: 'converged'})");
+        int rows = 0;
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertArrayEquals(allIterations.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.001);
+            rows++;
+        }
+        assertEquals(7, rows);
+
+        assertEquals(100, maxDiffusionSteps(DeepGLModel.from("diffusedAll")));
+        int steps = maxDiffusionSteps(DeepGLModel.from("converged"));
+        assertTrue("diffusion ran " + steps + " iterations", steps > 0 && steps < 100);
+    }
+
+    private static int maxDiffusionSteps(DeepGLModel model) {
+        int steps = 0;
+        for (Pruning.Feature feature : model.features()) {
+            for (Pruning.Feature step = feature; step != null; step = step.getPrev()) {
+                steps = Math.max(steps, model.diffusionSteps(step));
+            }
+        }
+        return steps;
+    }
+
+    @Test
+    public void reportsThreadTimings() throws Exception {
+
+        Result result = db.execute("CALL embedding.deepgl('Node', 'TYPE', {batchSize: 2, concurrency: 2, write: false})");
+
+        Map<String, Object> row = result.next();
+        Map<String, Object> threadMillis = (Map<String, Object>) row.get("threadMillis");
+        assertFalse(threadMillis.isEmpty());
+        for (Map.Entry<String, Object> entry : threadMillis.entrySet()) {
+            assertFalse(entry.getKey().isEmpty());
+            assertTrue(entry.getKey(), ((Number) entry.getValue()).longValue() >= 0);
+            // the compute time is taken from the wall clock, which may tick a millisecond less
+            assertTrue(entry.getKey(), ((Number) entry.getValue()).longValue() <= ((Number) row.get("computeMillis")).longValue() + 1);
+        }
+    }
+
+    @Test
+    public void memrec() throws Exception {
+
+        Result result = db.execute("CALL embedding.deepgl.memrec('Node', 'TYPE', {iterations: 2, nodeFeatures: ['prop1']})");
+
+        // 4 base features, then 3 neighbourhoods x 6 operators x the features kept so far, each also diffused
+        long[] features = {4, 144, 5328};
+        long previousBytes = 0;
+        int layer = 0;
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertEquals((long) layer, row.get("layer"));
+            assertEquals(features[layer], row.get("features"));
+            long bytes = (Long) row.get("heapBytes") + (Long) row.get("offHeapBytes");
+            assertTrue(bytes > previousBytes);
+            previousBytes = bytes;
+            layer++;
+        }
+        assertEquals(3, layer);
+    }
+
+    @Test
+    public void memrecReadsLabelsAsNames() throws Exception {
+
+        Result result = db.execute("CALL embedding.deepgl.memrec($label, 'TYPE', {iterations: 1})",
+                Collections.singletonMap("label", "Node`) DETACH DELETE n //"));
+
+        // the label is no label of the graph, so nothing is counted
+        Map<String, Object> base = result.next();
+        Map<String, Object> nodeBase = db.execute("CALL embedding.deepgl.memrec('Node', 'TYPE', {iterations: 1})").next();
+        assertEquals(0L, base.get("layer"));
+        assertEquals(3L, base.get("features"));
+        assertTrue((Long) base.get("heapBytes") < (Long) nodeBase.get("heapBytes"));
+        assertEquals(1L, db.execute("MATCH (n:Node {name:'a'}) RETURN count(n) AS count").columnAs("count").next());
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void refusesToRunOverMemoryBudget() throws Exception {
+
+        db.execute("CALL embedding.deepgl('Node', 'TYPE', {memoryBudget: 1024})").next();
+    }
+
+    @Test
+    public void streamWithMappedStorage() throws Exception {
+
+        Map<Long, double[]> heap = new HashMap<>();
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {storage: 'heap'})")
+                .forEachRemaining(row -> heap.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        String spillDirectory = Files.createTempDirectory("deepgl").toString();
+        Result result = db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {storage: 'mapped', spillDirectory: $spillDirectory})",
+                Collections.singletonMap("spillDirectory", spillDirectory));
+
+        int rows = 0;
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertArrayEquals(heap.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+            rows++;
+        }
+        assertEquals(heap.size(), rows);
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void rejectsUnknownModes() throws Exception {
+
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {mode: 'sparse'})").next();
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void mappedStorageNeedsTheFusedMode() throws Exception {
+
+        String spillDirectory = Files.createTempDirectory("deepgl").toString();
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {storage: 'mapped', mode: 'matrix', spillDirectory: $spillDirectory})",
+                Collections.singletonMap("spillDirectory", spillDirectory)).next();
+    }
+
     @Test
     public void removeInnerLoopInPruning() throws Exception {
 
@@ -92,5 +269,340 @@ public class DeepGLIntegrationTest {
             System.out.println("embeddings = " + Arrays.toString((double[])row.get("foo")));
         }
     }
-}
 
+    @Test
+    public void refreshChangedNodes() throws Exception {
+
+        db.execute("CALL embedding.deepgl('Node', 'TYPE', {writeProperty: 'refreshed', model: 'refreshed', nodeFeatures:['prop1'], iterations: 2})").close();
+
+        try {
+            db.execute("MATCH (n:Node {name: 'a'}) SET n.prop1 = 5").close();
+
+            Map<String, Object> nodeIds = Collections.singletonMap("nodeIds",
+                    db.execute("MATCH (n:Node {name: 'a'}) RETURN collect(id(n)) AS ids").next().get("ids"));
+            Result result = db.execute("CALL embedding.deepgl.refresh('Node', 'TYPE', $nodeIds, {writeProperty: 'refreshed', model: 'refreshed'})", nodeIds);
+
+            Map<String, Object> row = result.next();
+            assertEquals(1L, row.get("changedNodes"));
+            assertTrue(((Number) row.get("refreshedNodes")).longValue() >= 1);
+
+            // the refreshed property equals a full evaluation of the model on the changed graph
+            Map<Long, double[]> recomputed = new HashMap<>();
+            db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'refreshed'})")
+                    .forEachRemaining(applied -> recomputed.put((Long) applied.get("nodeId"), (double[]) applied.get("embedding")));
+
+            Result embeddings = db.execute("MATCH (n:Node) RETURN id(n) AS nodeId, n.refreshed AS refreshed");
+            int nodes = 0;
+            while (embeddings.hasNext()) {
+                Map<String, Object> embedding = embeddings.next();
+                assertArrayEquals((double[]) recomputed.get(embedding.get("nodeId")), (double[]) embedding.get("refreshed"), 1e-9);
+                nodes++;
+            }
+            assertEquals(recomputed.size(), nodes);
+        } finally {
+            db.execute("MATCH (n:Node) REMOVE n.prop1").close();
+        }
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void writeOnlyStoresNamedModels() throws Exception {
+
+        db.execute("CALL embedding.deepgl('Node', 'TYPE', {writeProperty: 'unnamed', iterations: 1})").close();
+
+        db.execute("CALL embedding.deepgl.model.info('unnamed')").next();
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void removedModelsAreGone() throws Exception {
+
+        db.execute("CALL embedding.deepgl('Node', 'TYPE', {write: false, model: 'removed', iterations: 1})").close();
+        db.execute("CALL embedding.deepgl.model.remove('removed')").close();
+
+        db.execute("CALL embedding.deepgl.model.info('removed')").next();
+    }
+
+    @Test
+    public void applyStoredModel() throws Exception {
+
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'applied', nodeFeatures:['prop1'], iterations: 2})").close();
+
+        Map<String, Object> info = db.execute("CALL embedding.deepgl.model.info('applied')").next();
+        List<String> features = (List<String>) info.get("features");
+        assertEquals("applied", info.get("model"));
+        assertEquals((long) features.size(), info.get("embeddingSize"));
+        // pruning keeps the base features, including the node property
+        assertTrue(features.contains("PROP1"));
+
+        Map<Long, double[]> embeddings = new HashMap<>();
+        Result result = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'applied'})");
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            double[] embedding = (double[]) row.get("embedding");
+            assertEquals(info.get("embeddingSize"), (long) embedding.length);
+            embeddings.put((Long) row.get("nodeId"), embedding);
+        }
+        assertEquals(7, embeddings.size());
+
+        Object data = db.execute("RETURN embedding.deepgl.model.data('applied') AS data").next().get("data");
+        db.execute("CALL embedding.deepgl.model.load('loaded', $data)", Collections.singletonMap("data", data)).close();
+
+        Result loaded = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'loaded', nodeIds: $nodeIds})",
+                Collections.singletonMap("nodeIds", Arrays.asList(embeddings.keySet().iterator().next())));
+        Map<String, Object> row = loaded.next();
+        assertArrayEquals(embeddings.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+        assertFalse(loaded.hasNext());
+    }
+
+    @Test
+    public void applyMatchesStreamWhenDiffusionStopsEarly() throws Exception {
+
+        // every layer diffuses the recomputed features of the previous layers again and may stop after a
+        // different number of iterations, the model has to keep the steps of the layer a feature was kept in
+        Map<Long, double[]> streamed = new HashMap<>();
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'earlyStop', nodeFeatures:['prop1'], iterations: 3, diffusions: 20, diffusionEpsilon: 0.5})")
+                .forEachRemaining(row -> streamed.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        Result result = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'earlyStop'})");
+        int rows = 0;
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            assertArrayEquals(streamed.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+            rows++;
+        }
+        assertEquals(7, rows);
+    }
+
+    @Test
+    public void planMatchesSingleNodeEvaluation() throws Exception {
+
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'planned', nodeFeatures:['prop1'], iterations: 3})").close();
+
+        Map<Long, double[]> planned = new HashMap<>();
+        Result result = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'planned'})");
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            planned.put((Long) row.get("nodeId"), (double[]) row.get("embedding"));
+        }
+
+        Result evaluated = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'planned', nodeIds: $nodeIds})",
+                Collections.singletonMap("nodeIds", new ArrayList<>(planned.keySet())));
+        int rows = 0;
+        while (evaluated.hasNext()) {
+            Map<String, Object> row = evaluated.next();
+            assertArrayEquals(planned.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+            rows++;
+        }
+        assertEquals(planned.size(), rows);
+    }
+
+    @Test
+    public void operatorAndNeighbourhoodSubsets() throws Exception {
+
+        // nothing is pruned, so every configured operator and neighbourhood shows up
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'subset', iterations: 2, pruningLambda: 1.0, " +
+                "operators: ['sum', 'mean', 'max'], neighbourhoods: ['out', 'both']})").close();
+
+        List<String> features = (List<String>) db.execute("CALL embedding.deepgl.model.info('subset')").next().get("features");
+        for (String feature : features) {
+            assertFalse(feature, feature.contains("_in_neighbourhood"));
+            assertFalse(feature, feature.contains("rbf") || feature.contains("hadamard") || feature.contains("l1Norm"));
+        }
+        for (String operator : Arrays.asList("sum", "mean", "max")) {
+            for (String neighbourhood : Arrays.asList("_out_neighbourhood", "_both_neighbourhood")) {
+                assertTrue(operator + neighbourhood, features.stream().anyMatch(feature -> feature.startsWith(operator + neighbourhood)));
+            }
+        }
+    }
+
+    @Test
+    public void registeredOperator() throws Exception {
+        DeepGLOperators.register(new DeepGLOperator() {
+            @Override
+            public String name() {
+                return "min";
+            }
+
+            @Override
+            public double apply(double nodeValue, double[] neighbourValues, int degree) {
+                double min = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < degree; i++) {
+                    min = Math.min(min, neighbourValues[i]);
+                }
+                return min;
+            }
+        });
+
+        final long a = (Long) db.execute("MATCH (n:Node {name: 'a'}) RETURN id(n) AS id").next().get("id");
+        final long c = (Long) db.execute("MATCH (n:Node {name: 'c'}) RETURN id(n) AS id").next().get("id");
+
+        for (String mode : Arrays.asList("fused", "matrix", "ndarray")) {
+            // nothing is pruned, so every min feature is kept
+            Result result = db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', " +
+                            "{model: 'min', iterations: 1, operators: ['min', 'sum'], mode: $mode, pruningLambda: 1.0})",
+                    Collections.singletonMap("mode", mode));
+            Map<Long, double[]> embeddings = new HashMap<>();
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                embeddings.put((Long) row.get("nodeId"), (double[]) row.get("embedding"));
+            }
+            assertEquals(7, embeddings.size());
+
+            List<String> features = (List<String>) db.execute("CALL embedding.deepgl.model.info('min')").next().get("features");
+            assertTrue(mode, features.stream().anyMatch(feature -> feature.startsWith("min_") && feature.contains("_neighbourhood")));
+
+            // the binned out degrees are a:1 b:0 c:1 d:2 e:0 f:0 g:0, so the min over the out neighbours
+            // is 0 for a, 1 for b and 2 for c, nodes without out neighbours keep 0
+            final int minOutDegree = features.indexOf("min_out_neighbourhood( OUT_DEGREE)");
+            assertTrue(mode, minOutDegree >= 0);
+            assertEquals(mode, 0.0, embeddings.get(a)[minOutDegree], 0.0);
+            for (Map.Entry<Long, double[]> entry : embeddings.entrySet()) {
+                if (entry.getKey() != c) {
+                    assertTrue(mode, entry.getValue()[minOutDegree] < embeddings.get(c)[minOutDegree]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void registeredOperatorMatrixFormAppliesItPerRow() throws Exception {
+        DeepGL.RegisteredOperator count = new DeepGL.RegisteredOperator(new DeepGLOperator() {
+            @Override
+            public String name() {
+                return "count";
+            }
+
+            @Override
+            public double apply(double nodeValue, double[] neighbourValues, int degree) {
+                return degree + nodeValue;
+            }
+        });
+
+        INDArray features = Nd4j.create(new double[][]{{1, 10}, {2, 20}, {3, 30}});
+        // node 0 has the neighbours 1 and 2, node 1 has node 2, node 2 has none
+        INDArray adjacency = Nd4j.create(new double[][]{{0, 1, 1}, {0, 0, 1}, {0, 0, 0}});
+
+        INDArray result = count.ndOp(features, adjacency);
+        assertArrayEquals(new double[]{3, 12}, result.getRow(0).toDoubleVector(), 0.0);
+        assertArrayEquals(new double[]{3, 21}, result.getRow(1).toDoubleVector(), 0.0);
+        assertArrayEquals(new double[]{0, 0}, result.getRow(2).toDoubleVector(), 0.0);
+    }
+
+    @Test
+    public void undirected() throws Exception {
+
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'undirected', iterations: 2, undirected: true})").close();
+
+        List<String> features = (List<String>) db.execute("CALL embedding.deepgl.model.info('undirected')").next().get("features");
+        for (String feature : features) {
+            assertFalse(feature, feature.contains("_in_neighbourhood") || feature.contains("_out_neighbourhood"));
+        }
+
+        Result result = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'undirected'})");
+        int rows = 0;
+        while (result.hasNext()) {
+            assertEquals(features.size(), ((double[]) result.next().get("embedding")).length);
+            rows++;
+        }
+        assertEquals(7, rows);
+    }
+
+    @Test
+    public void sampledNeighbourhoods() throws Exception {
+
+        Map<String, Object> row = db.execute("CALL embedding.deepgl('Node', 'TYPE', {write: false, iterations: 2, maxNeighbours: 1})").next();
+
+        Map<String, Object> nodeCost = (Map<String, Object>) row.get("nodeCost");
+        // only a and d have two out neighbours, no node has more than one in neighbour
+        assertEquals(2L, ((Number) nodeCost.get("sampledNodes")).longValue());
+        // at most one out and one in neighbour: 10 diffusions over 2 both neighbours plus 1 + 1 + 2 operator reads
+        assertEquals(24L, ((Number) nodeCost.get("max")).longValue());
+        assertTrue(((Number) nodeCost.get("p99")).longValue() <= ((Number) nodeCost.get("max")).longValue());
+    }
+
+    @Test
+    public void bytePrecision() throws Exception {
+
+        db.execute("CALL embedding.deepgl('Node', 'TYPE', {writeProperty: 'binned', model: 'binned', iterations: 2, precision: 'byte'})").close();
+
+        Map<Long, double[]> applied = new HashMap<>();
+        db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'binned'})")
+                .forEachRemaining(row -> applied.put((Long) row.get("nodeId"), toDoubles(row.get("embedding"))));
+
+        Result result = db.execute("MATCH (n:Node) RETURN id(n) AS nodeId, n.binned AS embedding");
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            Object embedding = row.get("embedding");
+            assertTrue(embedding.getClass().getSimpleName(), embedding instanceof byte[]);
+            byte[] bytes = (byte[]) embedding;
+            double[] expected = applied.get(row.get("nodeId"));
+            assertEquals(expected.length, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                assertTrue("bins are never negative", bytes[i] >= 0);
+                assertEquals(expected[i], bytes[i], 0.0);
+            }
+        }
+
+        db.execute("MATCH (n:Node) WITH collect(id(n))[0..1] AS nodeIds " +
+                "CALL embedding.deepgl.refresh('Node', 'TYPE', nodeIds, {writeProperty: 'binned', model: 'binned'}) YIELD refreshedNodes RETURN refreshedNodes").close();
+
+        result = db.execute("MATCH (n:Node) RETURN n.binned AS embedding");
+        while (result.hasNext()) {
+            assertTrue(result.next().get("embedding") instanceof byte[]);
+        }
+    }
+
+    @Test
+    public void pagedStream() throws Exception {
+
+        db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {model: 'paged', iterations: 2})").close();
+
+        Map<Long, double[]> all = new HashMap<>();
+        db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'paged'})")
+                .forEachRemaining(row -> all.put((Long) row.get("nodeId"), (double[]) row.get("embedding")));
+
+        Map<Long, double[]> paged = new HashMap<>();
+        for (int skip = 0; skip < all.size(); skip += 3) {
+            Result result = db.execute("CALL embedding.deepgl.apply('Node', 'TYPE', {model: 'paged', skip: $skip, limit: 3})",
+                    Collections.singletonMap("skip", skip));
+            while (result.hasNext()) {
+                Map<String, Object> row = result.next();
+                assertArrayEquals(all.get(row.get("nodeId")), (double[]) row.get("embedding"), 0.0);
+                paged.put((Long) row.get("nodeId"), (double[]) row.get("embedding"));
+            }
+        }
+        assertEquals(all.keySet(), paged.keySet());
+
+        Object embedding = db.execute("CALL embedding.deepgl.stream('Node', 'TYPE', {iterations: 2, precision: 'float', limit: 1})").next().get("embedding");
+        assertTrue(embedding instanceof float[]);
+    }
+
+    @Test
+    public void batchedWrite() throws Exception {
+
+        Map<String, Object> row = db.execute("CALL embedding.deepgl('Node', 'TYPE', {writeProperty: 'batched', iterations: 2, " +
+                "writeBatchSize: 2, writeConcurrency: 2})").next();
+        assertEquals(7L, row.get("nodes"));
+        assertEquals("batched", row.get("writeProperty"));
+        assertTrue(((Number) row.get("writeMillis")).longValue() >= 0);
+
+        Result result = db.execute("MATCH (n:Node) RETURN n.batched AS embedding");
+        int rows = 0;
+        while (result.hasNext()) {
+            assertEquals(((Number) row.get("embeddingSize")).intValue(), ((double[]) result.next().get("embedding")).length);
+            rows++;
+        }
+        assertEquals(7, rows);
+    }
+
+    private static double[] toDoubles(Object embedding) {
+        if (embedding instanceof float[]) {
+            final float[] floats = (float[]) embedding;
+            final double[] doubles = new double[floats.length];
+            for (int i = 0; i < floats.length; i++) {
+                doubles[i] = floats[i];
+            }
+            return doubles;
+        }
+        return (double[]) embedding;
+    }
+}
@@ -0,0 +1,67 @@
+package embedding;
+
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeepGLMemoryEstimationTest {
+
+    @Test
+    public void layersGrowWithTheOperatorFanOut() {
+        DeepGLMemoryEstimation estimation = new DeepGLMemoryEstimation(1000, 5000, 6, 3, 4, DeepGL.Mode.FUSED, FeatureMatrix.Storage.HEAP);
+
+        List<DeepGLMemoryEstimation.Estimate> layers = estimation.layers(4, 2);
+
+        assertEquals(3, layers.size());
+        assertEquals(4, layers.get(0).features);
+        // 3 neighbourhoods x 6 operators x 4 features, doubled by diffusion
+        assertEquals(144, layers.get(1).features);
+        // the 4 kept base features and the 144 features of the first layer
+        assertEquals((4 + 144) * 36, layers.get(2).features);
+
+        assertTrue(layers.get(1).heapBytes > 144 * 1000 * Double.BYTES);
+        assertTrue(layers.get(2).heapBytes > layers.get(1).heapBytes);
+        assertEquals(0, layers.get(2).offHeapBytes);
+    }
+
+    @Test
+    public void layersGetAllFeaturesKeptSoFar() {
+        DeepGLMemoryEstimation estimation = new DeepGLMemoryEstimation(1000, 5000, 1, 1, 1, DeepGL.Mode.FUSED, FeatureMatrix.Storage.OFF_HEAP);
+
+        List<DeepGLMemoryEstimation.Estimate> layers = estimation.layers(3, 3);
+
+        // one operator on one neighbourhood, every feature once as it is and once diffused
+        assertEquals(3, layers.get(0).features);
+        assertEquals(6, layers.get(1).features);
+        assertEquals(2 * (3 + 6), layers.get(2).features);
+        assertEquals(2 * (3 + 6 + 18), layers.get(3).features);
+        // previous layer, operator results, diffusion copy and scratch buffer of the last layer
+        assertEquals((27 + 3 * 27) * 1000L * Double.BYTES, layers.get(3).offHeapBytes);
+    }
+
+    @Test
+    public void offHeapStorageMovesColumnsOffHeap() {
+        DeepGLMemoryEstimation heap = new DeepGLMemoryEstimation(1000, 5000, 6, 3, 4, DeepGL.Mode.FUSED, FeatureMatrix.Storage.HEAP);
+        DeepGLMemoryEstimation offHeap = new DeepGLMemoryEstimation(1000, 5000, 6, 3, 4, DeepGL.Mode.FUSED, FeatureMatrix.Storage.OFF_HEAP);
+
+        DeepGLMemoryEstimation.Estimate onHeapLayer = heap.layer(1, 10);
+        DeepGLMemoryEstimation.Estimate offHeapLayer = offHeap.layer(1, 10);
+
+        // previous layer, operator results, diffusion copy and scratch buffer
+        assertEquals((10 + 3 * 180) * 1000L * Double.BYTES, offHeapLayer.offHeapBytes);
+        assertTrue(offHeapLayer.heapBytes < onHeapLayer.heapBytes);
+    }
+
+    @Test
+    public void saturatesInsteadOfOverflowing() {
+        DeepGLMemoryEstimation estimation = new DeepGLMemoryEstimation(1_000_000, 10_000_000, 6, 3, 4, DeepGL.Mode.FUSED, FeatureMatrix.Storage.HEAP);
+
+        List<DeepGLMemoryEstimation.Estimate> layers = estimation.layers(3, 20);
+
+        assertEquals(Long.MAX_VALUE, layers.get(20).totalBytes());
+    }
+}
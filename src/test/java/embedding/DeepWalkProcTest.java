@@ -0,0 +1,102 @@
+package embedding;
+
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.QueryExecutionException;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class DeepWalkProcTest {
+
+    private static GraphDatabaseAPI db;
+
+    @BeforeClass
+    public static void setupGraph() throws KernelException {
+
+        final String cypher =
+                "CREATE (a:Node {name:'a'})\n" +
+                        "CREATE (b:Node {name:'b'})\n" +
+                        "CREATE (c:Node {name:'c'})\n" +
+                        "CREATE (d:Node {name:'d'})\n" +
+                        "CREATE (e:Node {name:'e'})\n" +
+                        "CREATE" +
+                        " (a)-[:TYPE {weight: 1.0}]->(b),\n" +
+                        " (b)-[:TYPE {weight: 1.0}]->(c),\n" +
+                        " (c)-[:TYPE {weight: 1.0}]->(a),\n" +
+                        " (c)-[:TYPE {weight: 1.0}]->(d),\n" +
+                        " (d)-[:TYPE {weight: 1.0}]->(e)\n" +
+                        "CREATE (:Negative {name:'n'})-[:TYPE {weight: -1.0}]->(:Negative {name:'n1'})";
+
+        db = TestDatabaseCreator.createTestDatabase();
+
+        try (Transaction tx = db.beginTx()) {
+            db.execute(cypher);
+            tx.success();
+        }
+
+        Procedures procedures = db.getDependencyResolver().resolveDependency(Procedures.class);
+        procedures.registerProcedure(DeepWalkProc.class);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (db != null) db.shutdown();
+    }
+
+    @Test
+    public void node2vecStream() throws Exception {
+
+        Result result = db.execute("CALL embedding.node2vec.stream('Node', 'TYPE', " +
+                "{vectorSize: 4, walkSize: 5, walksPerNode: 2, returnFactor: 0.5, inOutFactor: 2.0})");
+
+        Set<Long> nodeIds = new HashSet<>();
+        while (result.hasNext()) {
+            Map<String, Object> row = result.next();
+            double[] embedding = (double[]) row.get("embedding");
+            assertEquals(4, embedding.length);
+            for (double value : embedding) {
+                assertTrue(Double.isFinite(value));
+            }
+            nodeIds.add((Long) row.get("nodeId"));
+        }
+        assertEquals(5, nodeIds.size());
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void node2vecRejectsWeights() throws Exception {
+
+        db.execute("CALL embedding.node2vec.stream('Node', 'TYPE', {weightProperty: 'weight'})").next();
+    }
+
+    @Test
+    public void weightedDeepWalkStream() throws Exception {
+
+        Result result = db.execute("CALL embedding.deepWalk.stream('Node', 'TYPE', {vectorSize: 4, walkSize: 5, weightProperty: 'weight'})");
+
+        int rows = 0;
+        while (result.hasNext()) {
+            assertEquals(4, ((double[]) result.next().get("embedding")).length);
+            rows++;
+        }
+        assertEquals(5, rows);
+    }
+
+    @Test(expected = QueryExecutionException.class)
+    public void weightedDeepWalkRejectsNegativeWeights() throws Exception {
+
+        db.execute("CALL embedding.deepWalk.stream('Negative', 'TYPE', {weightProperty: 'weight'})").next();
+    }
+}
@@ -0,0 +1,40 @@
+package embedding;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class FeatureDagTest {
+
+    @Test
+    public void internsEqualExpressions() {
+        FeatureDag dag = new FeatureDag();
+
+        Pruning.Feature inDegree = dag.base("IN_DEGREE");
+        Pruning.Feature sum = dag.apply("sum_out_neighbourhood", inDegree);
+
+        assertSame(inDegree, dag.base("IN_DEGREE"));
+        assertSame(sum, dag.apply("sum_out_neighbourhood", dag.base("IN_DEGREE")));
+        assertSame(sum, dag.intern(new Pruning.Feature("sum_out_neighbourhood", new Pruning.Feature("IN_DEGREE"))));
+
+        assertEquals(0, inDegree.getId());
+        assertEquals(1, sum.getId());
+        assertEquals(2, dag.size());
+        assertSame(sum, dag.get(1));
+    }
+
+    @Test
+    public void equalsAndHashCodeFollowTheExpression() {
+        Pruning.Feature first = new Pruning.Feature("diffuse", new Pruning.Feature("max_in_neighbourhood", new Pruning.Feature("OUT_DEGREE")));
+        Pruning.Feature second = new Pruning.Feature("diffuse", new Pruning.Feature("max_in_neighbourhood", new Pruning.Feature("OUT_DEGREE")));
+        Pruning.Feature other = new Pruning.Feature("diffuse", new Pruning.Feature("max_in_neighbourhood", new Pruning.Feature("IN_DEGREE")));
+
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, other);
+        assertNotEquals(first, first.getPrev());
+    }
+}
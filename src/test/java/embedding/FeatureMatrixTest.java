@@ -0,0 +1,167 @@
+package embedding;
+
+
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FeatureMatrixTest {
+
+    private final double[][] rows = {
+            {1, 2, 3},
+            {4, 5, 6},
+            {7, 8, 9},
+            {10, 11, 12}
+    };
+
+    @Test
+    public void roundTripsThroughINDArray() {
+        FeatureMatrix matrix = FeatureMatrix.of(rows);
+
+        assertEquals(4, matrix.rows());
+        assertEquals(3, matrix.columns());
+        assertEquals(Nd4j.create(rows), matrix.toINDArray());
+        assertArrayEquals(rows[2], FeatureMatrix.of(Nd4j.create(rows)).row(2), 0.0);
+    }
+
+    @Test
+    public void selectAndConcatShareColumns() {
+        FeatureMatrix matrix = FeatureMatrix.of(rows);
+
+        FeatureMatrix selected = matrix.selectColumns(2, 0);
+        assertArrayEquals(new double[]{6, 4}, selected.row(1), 0.0);
+
+        FeatureMatrix concatenated = matrix.concat(selected);
+        assertEquals(5, concatenated.columns());
+        assertArrayEquals(new double[]{7, 8, 9, 9, 7}, concatenated.row(2), 0.0);
+
+        selected.set(0, 0, 42);
+        assertEquals(42, matrix.get(0, 2), 0.0);
+        assertEquals(42, concatenated.get(0, 3), 0.0);
+    }
+
+    @Test
+    public void copyDoesNotShareColumns() {
+        FeatureMatrix matrix = FeatureMatrix.of(rows);
+        FeatureMatrix copy = matrix.copy();
+
+        copy.set(3, 1, -1);
+
+        assertEquals(11, matrix.get(3, 1), 0.0);
+        assertEquals(-1, copy.get(3, 1), 0.0);
+    }
+
+    @Test
+    public void offHeapStorage() {
+        FeatureMatrix matrix = FeatureMatrix.create(4, 2, FeatureMatrix.Storage.OFF_HEAP);
+        matrix.set(3, 1, 2.5);
+
+        double[] column = new double[4];
+        matrix.column(1).copyTo(column);
+
+        assertArrayEquals(new double[]{0, 0, 0, 2.5}, column, 0.0);
+        assertEquals(FeatureMatrix.Storage.OFF_HEAP, matrix.copy().storage());
+    }
+
+    @Test
+    public void mappedStorageSpillsToTheSpillDirectory() throws Exception {
+        Path spillDirectory = Files.createTempDirectory("spill");
+
+        FeatureMatrix matrix = FeatureMatrix.create(4, 2, FeatureMatrix.Storage.MAPPED, spillDirectory);
+        matrix.set(2, 0, 1.5);
+        matrix.column(1).copyFrom(new double[]{1, 2, 3, 4});
+
+        FeatureMatrix copy = matrix.copy();
+        assertEquals(FeatureMatrix.Storage.MAPPED, copy.storage());
+        assertArrayEquals(new double[]{1.5, 3}, copy.row(2), 0.0);
+
+        // the layer file is unlinked as soon as it is mapped
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void mappedColumnsDoNotOverlap() throws Exception {
+        Path spillDirectory = Files.createTempDirectory("spill");
+
+        FeatureMatrix matrix = FeatureMatrix.create(3, 4, FeatureMatrix.Storage.MAPPED, FeatureMatrix.Precision.FLOAT, spillDirectory);
+        for (int column = 0; column < 4; column++) {
+            matrix.column(column).copyFrom(new double[]{column, column + 0.5, column + 0.25});
+        }
+
+        for (int column = 0; column < 4; column++) {
+            double[] values = new double[3];
+            matrix.column(column).copyTo(values);
+            assertArrayEquals(new double[]{column, column + 0.5, column + 0.25}, values, 0.0);
+        }
+    }
+
+    @Test
+    public void floatColumnsRoundValues() {
+        FeatureMatrix matrix = FeatureMatrix.create(4, 2, FeatureMatrix.Storage.HEAP, FeatureMatrix.Precision.FLOAT, null);
+        matrix.set(1, 0, 0.1);
+        matrix.set(2, 1, 1e40);
+
+        assertEquals((float) 0.1, matrix.get(1, 0), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix.get(2, 1), 0.0);
+        assertEquals(FeatureMatrix.Precision.FLOAT, matrix.copy().precision());
+    }
+
+    @Test
+    public void byteColumnsStoreBinsUnsigned() {
+        for (FeatureMatrix.Storage storage : new FeatureMatrix.Storage[]{FeatureMatrix.Storage.HEAP, FeatureMatrix.Storage.OFF_HEAP}) {
+            FeatureMatrix matrix = FeatureMatrix.create(2, 2, storage, FeatureMatrix.Precision.BYTE, null);
+            matrix.column(1).copyFrom(new double[]{200, 255});
+            matrix.set(1, 0, 31);
+
+            assertArrayEquals(new double[]{0, 200}, matrix.row(0), 0.0);
+            assertArrayEquals(new double[]{31, 255}, matrix.row(1), 0.0);
+            assertEquals(FeatureMatrix.Precision.BYTE, matrix.selectColumns(1).precision());
+        }
+    }
+
+    @Test
+    public void withPrecisionCopiesOnlyWhenThePrecisionChanges() {
+        FeatureMatrix matrix = FeatureMatrix.of(rows);
+
+        assertSame(matrix, matrix.withPrecision(FeatureMatrix.Precision.DOUBLE));
+
+        FeatureMatrix bytes = matrix.withPrecision(FeatureMatrix.Precision.BYTE);
+        bytes.set(0, 0, 5);
+        assertEquals(1, matrix.get(0, 0), 0.0);
+        assertArrayEquals(rows[3], bytes.row(3), 0.0);
+    }
+
+    @Test
+    public void rowRangesInTheTypeOfTheMatrix() {
+        Object[] doubles = FeatureMatrix.of(rows).rows(1, 3);
+        assertEquals(2, doubles.length);
+        assertArrayEquals(rows[2], (double[]) doubles[1], 0.0);
+
+        Object[] floats = FeatureMatrix.of(rows).withPrecision(FeatureMatrix.Precision.BYTE).rows(3, 4);
+        assertArrayEquals(new float[]{10, 11, 12}, (float[]) floats[0], 0.0f);
+    }
+
+    @Test
+    public void copyRowsIsRowMajor() {
+        FeatureMatrix matrix = FeatureMatrix.create(4, 3, FeatureMatrix.Storage.OFF_HEAP);
+        for (int row = 0; row < rows.length; row++) {
+            for (int column = 0; column < 3; column++) {
+                matrix.set(row, column, rows[row][column]);
+            }
+        }
+
+        double[] target = new double[6];
+        matrix.copyRows(2, 4, target);
+
+        assertArrayEquals(new double[]{7, 8, 9, 10, 11, 12}, target, 0.0);
+    }
+}
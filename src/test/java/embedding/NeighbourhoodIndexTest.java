@@ -0,0 +1,182 @@
+package embedding;
+
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphalgo.api.Graph;
+import org.neo4j.graphalgo.core.GraphLoader;
+import org.neo4j.graphalgo.core.heavyweight.HeavyGraphFactory;
+import org.neo4j.graphalgo.core.utils.Pools;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NeighbourhoodIndexTest {
+
+    private static GraphDatabaseAPI db;
+    private static Graph graph;
+
+    @BeforeClass
+    public static void setupGraph() {
+
+        final String cypher =
+                "CREATE (a:Node {name:'a'})\n" +
+                        "CREATE (b:Node {name:'b'})\n" +
+                        "CREATE (c:Node {name:'c'})\n" +
+                        "CREATE (d:Node {name:'d'})\n" +
+                        "CREATE" +
+                        " (a)-[:TYPE]->(b),\n" +
+                        " (a)-[:TYPE]->(c),\n" +
+                        " (b)-[:TYPE]->(c),\n" +
+                        " (d)-[:TYPE]->(a),\n" +
+                        " (a)-[:MUTUAL]->(b),\n" +
+                        " (b)-[:MUTUAL]->(a),\n" +
+                        " (b)-[:MUTUAL]->(c),\n" +
+                        " (c)-[:MUTUAL]->(b)";
+
+        db = TestDatabaseCreator.createTestDatabase();
+
+        try (Transaction tx = db.beginTx()) {
+            db.execute(cypher);
+            tx.success();
+        }
+
+        graph = new GraphLoader(db, Pools.DEFAULT)
+                .withLabel("Node")
+                .withRelationshipType("TYPE")
+                .withDirection(Direction.BOTH)
+                .load(HeavyGraphFactory.class);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (db != null) db.shutdown();
+    }
+
+    @Test
+    public void splitsNeighbourhoodsByDirection() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+
+        int a = graph.toMappedNodeId(0);
+        int b = graph.toMappedNodeId(1);
+        int c = graph.toMappedNodeId(2);
+        int d = graph.toMappedNodeId(3);
+
+        assertArrayEquals(sorted(b, c), sorted(index.neighbours(a, Direction.OUTGOING)));
+        assertArrayEquals(new int[]{d}, index.neighbours(a, Direction.INCOMING));
+        assertArrayEquals(sorted(b, c, d), sorted(index.neighbours(a, Direction.BOTH)));
+
+        assertEquals(0, index.degree(c, Direction.OUTGOING));
+        assertEquals(2, index.degree(c, Direction.INCOMING));
+        assertEquals(2, index.degree(c, Direction.BOTH));
+
+        assertEquals(1, index.degree(d, Direction.BOTH));
+    }
+
+    @Test
+    public void degreesMatchGraph() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 4);
+
+        for (int nodeId = 0; nodeId < graph.nodeCount(); nodeId++) {
+            for (Direction direction : Direction.values()) {
+                assertEquals(graph.degree(nodeId, direction), index.degree(nodeId, direction));
+            }
+        }
+    }
+
+    @Test
+    public void undirectedIndexReturnsTheBothNeighbourhoodForEveryDirection() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        assertFalse(index.isSymmetric(Pools.DEFAULT, 2));
+
+        NeighbourhoodIndex undirected = index.toUndirected(false, Pools.DEFAULT, 2);
+        assertTrue(undirected.isUndirected());
+
+        for (int nodeId = 0; nodeId < graph.nodeCount(); nodeId++) {
+            for (Direction direction : Direction.values()) {
+                assertArrayEquals(index.neighbours(nodeId, Direction.BOTH), undirected.neighbours(nodeId, direction));
+            }
+        }
+    }
+
+    @Test
+    public void symmetricGraphKeepsOneCopyOfEveryRelationship() {
+        Graph mutual = new GraphLoader(db, Pools.DEFAULT)
+                .withLabel("Node")
+                .withRelationshipType("MUTUAL")
+                .withDirection(Direction.BOTH)
+                .load(HeavyGraphFactory.class);
+
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(mutual, Pools.DEFAULT, 2);
+        assertTrue(index.isSymmetric(Pools.DEFAULT, 2));
+
+        NeighbourhoodIndex undirected = index.toUndirected(true, Pools.DEFAULT, 2);
+        int b = mutual.toMappedNodeId(1);
+        assertEquals(2, undirected.degree(b, Direction.BOTH));
+        assertEquals(2, undirected.degree(b, Direction.INCOMING));
+        assertEquals(index.targets().length / 2, undirected.targets().length);
+    }
+
+    @Test
+    public void samplingCapsNeighbourhoodsDeterministically() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        NeighbourhoodIndex sampled = index.sample(1, 42L, Pools.DEFAULT, 2);
+        NeighbourhoodIndex again = index.sample(1, 42L, Pools.DEFAULT, 2);
+
+        int a = graph.toMappedNodeId(0);
+        assertEquals(1, sampled.degree(a, Direction.OUTGOING));
+        assertEquals(2, sampled.degree(a, Direction.BOTH));
+        assertEquals(2, sampled.originalDegree(a, Direction.OUTGOING));
+        assertEquals(3, sampled.originalDegree(a, Direction.BOTH));
+        assertTrue(Arrays.stream(index.neighbours(a, Direction.OUTGOING)).anyMatch(id -> id == sampled.neighbours(a, Direction.OUTGOING)[0]));
+
+        for (int nodeId = 0; nodeId < graph.nodeCount(); nodeId++) {
+            for (Direction direction : Direction.values()) {
+                assertArrayEquals(sampled.neighbours(nodeId, direction), again.neighbours(nodeId, direction));
+                assertEquals(index.degree(nodeId, direction), sampled.originalDegree(nodeId, direction));
+            }
+        }
+    }
+
+    @Test
+    public void sortedNeighbourhoodsSupportMembershipTests() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2)
+                .sortNeighbourhoods(Pools.DEFAULT, 2);
+
+        int a = graph.toMappedNodeId(0);
+        int b = graph.toMappedNodeId(1);
+        int d = graph.toMappedNodeId(3);
+
+        assertArrayEquals(sorted(index.neighbours(a, Direction.OUTGOING)), index.neighbours(a, Direction.OUTGOING));
+        assertTrue(index.contains(a, b, Direction.OUTGOING));
+        assertFalse(index.contains(a, d, Direction.OUTGOING));
+        assertTrue(index.contains(a, d, Direction.INCOMING));
+    }
+
+    @Test
+    public void undirectedIndexesSupportMembershipTestsInEveryDirection() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        index = index.toUndirected(false, Pools.DEFAULT, 2).sortNeighbourhoods(Pools.DEFAULT, 2);
+
+        int a = graph.toMappedNodeId(0);
+        int b = graph.toMappedNodeId(1);
+        int d = graph.toMappedNodeId(3);
+        assertTrue(index.contains(a, d, Direction.BOTH));
+        assertTrue(index.contains(d, a, Direction.OUTGOING));
+        assertFalse(index.contains(b, d, Direction.BOTH));
+    }
+
+    private static int[] sorted(int... ids) {
+        int[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
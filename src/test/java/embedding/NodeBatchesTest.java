@@ -0,0 +1,97 @@
+package embedding;
+
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphalgo.api.Graph;
+import org.neo4j.graphalgo.core.GraphLoader;
+import org.neo4j.graphalgo.core.heavyweight.HeavyGraphFactory;
+import org.neo4j.graphalgo.core.utils.Pools;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeBatchesTest {
+
+    private static GraphDatabaseAPI db;
+    private static Graph graph;
+
+    @BeforeClass
+    public static void setupGraph() {
+
+        // a hub connected to every leaf
+        final String cypher =
+                "CREATE (hub:Node {name:'hub'})\n" +
+                        "WITH hub UNWIND range(1, 100) AS i\n" +
+                        "CREATE (hub)-[:TYPE]->(:Node {name: 'leaf' + i})";
+
+        db = TestDatabaseCreator.createTestDatabase();
+
+        try (Transaction tx = db.beginTx()) {
+            db.execute(cypher);
+            tx.success();
+        }
+
+        graph = new GraphLoader(db, Pools.DEFAULT)
+                .withLabel("Node")
+                .withRelationshipType("TYPE")
+                .withDirection(Direction.BOTH)
+                .load(HeavyGraphFactory.class);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (db != null) db.shutdown();
+    }
+
+    @Test
+    public void visitsEveryNodeOnce() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            NodeBatches batches = NodeBatches.degreeWeighted(index, 10, pool);
+
+            AtomicIntegerArray visits = new AtomicIntegerArray(index.nodeCount());
+            batches.forEachBatch((from, to) -> {
+                for (int nodeId = from; nodeId < to; nodeId++) {
+                    visits.incrementAndGet(nodeId);
+                }
+            });
+
+            for (int nodeId = 0; nodeId < index.nodeCount(); nodeId++) {
+                assertEquals(1, visits.get(nodeId));
+            }
+            assertFalse(batches.threadMillis().isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void hubGetsAShortBatch() {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            NodeBatches batches = NodeBatches.degreeWeighted(index, 10, pool);
+            int hub = graph.toMappedNodeId(0);
+
+            // the hub weighs about as much as all leaves together, so its batch holds far fewer than 10 nodes
+            batches.forEachBatch((from, to) -> {
+                if (from <= hub && hub < to) {
+                    assertTrue(to - from < 10);
+                }
+            });
+            assertTrue(batches.batchCount() < index.nodeCount() / 10);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
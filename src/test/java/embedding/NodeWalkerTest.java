@@ -0,0 +1,211 @@
+package embedding;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphalgo.api.Graph;
+import org.neo4j.graphalgo.core.GraphLoader;
+import org.neo4j.graphalgo.core.heavyweight.HeavyGraphFactory;
+import org.neo4j.graphalgo.core.utils.Pools;
+import org.neo4j.graphalgo.core.utils.TerminationFlag;
+import org.neo4j.graphalgo.impl.walking.NodeWalker.NextNodeStrategy;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NodeWalkerTest {
+
+    private static GraphDatabaseAPI db;
+
+    @BeforeClass
+    public static void setupGraph() {
+
+        final String cypher =
+                "CREATE (a:Node {name:'a'})\n" +
+                        "CREATE (b:Node {name:'b'})\n" +
+                        "CREATE (c:Node {name:'c'})\n" +
+                        "CREATE (d:Node {name:'d'})\n" +
+                        "CREATE (x:Loop {name:'x'})\n" +
+                        "CREATE (y:Loop {name:'y'})\n" +
+                        "CREATE (z:Loop {name:'z'})\n" +
+                        "CREATE" +
+                        " (a)-[:TYPE]->(b),\n" +
+                        " (a)-[:TYPE]->(c),\n" +
+                        " (b)-[:TYPE]->(c),\n" +
+                        " (d)-[:TYPE]->(a),\n" +
+                        " (x)-[:TYPE]->(x),\n" +
+                        " (x)-[:TYPE]->(y),\n" +
+                        " (x)-[:TYPE]->(z)\n" +
+                        "CREATE (w:Weighted {name:'w'})-[:TYPE {weight: 99.0}]->(:Weighted {name:'u'}),\n" +
+                        " (w)-[:TYPE {weight: 1.0}]->(:Weighted {name:'v'}),\n" +
+                        " (w)-[:TYPE {weight: 0.0}]->(:Weighted {name:'o'})\n" +
+                        "CREATE (z:Zero {name:'z'})-[:TYPE {weight: 0.0}]->(:Zero {name:'z1'}),\n" +
+                        " (z)-[:TYPE {weight: 0.0}]->(:Zero {name:'z2'})\n" +
+                        "CREATE (:Negative {name:'n'})-[:TYPE {weight: -1.0}]->(:Negative {name:'n1'})";
+
+        db = TestDatabaseCreator.createTestDatabase();
+
+        try (Transaction tx = db.beginTx()) {
+            db.execute(cypher);
+            tx.success();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        if (db != null) db.shutdown();
+    }
+
+    private static Graph load(String label) {
+        return new GraphLoader(db, Pools.DEFAULT)
+                .withLabel(label)
+                .withRelationshipType("TYPE")
+                .withDirection(Direction.BOTH)
+                .load(HeavyGraphFactory.class);
+    }
+
+    private static Graph loadWeighted(String label) {
+        return new GraphLoader(db, Pools.DEFAULT)
+                .withLabel(label)
+                .withRelationshipType("TYPE")
+                .withDirection(Direction.BOTH)
+                .withOptionalRelationshipWeightsFromProperty("weight", 1.0)
+                .load(HeavyGraphFactory.class);
+    }
+
+    private static int mappedId(Graph graph, String name) {
+        final long nodeId = (Long) db.execute("MATCH (n {name: $name}) RETURN id(n) AS id", Collections.singletonMap("name", name)).next().get("id");
+        return graph.toMappedNodeId(nodeId);
+    }
+
+    private static NeighbourhoodIndex node2vecIndex(Graph graph) {
+        NeighbourhoodIndex index = NeighbourhoodIndex.build(graph, Pools.DEFAULT, 2);
+        return index.toUndirected(false, Pools.DEFAULT, 2).sortNeighbourhoods(Pools.DEFAULT, 2);
+    }
+
+    // walks along the ring 0 -> 1 -> ... -> nodeCount - 1 -> 0
+    private static NextNodeStrategy ring(int nodeCount) {
+        return new NextNodeStrategy(null, null) {
+            @Override
+            public int getNextNode(int currentNodeId, int previousNodeId) {
+                return (currentNodeId + 1) % nodeCount;
+            }
+        };
+    }
+
+    @Test
+    public void startsWalksPerNodeWalksFromEveryNode() {
+        final int nodeCount = 101;
+        final List<int[]> walks = new NodeWalker()
+                .internalRandomWalk(3, ring(nodeCount), TerminationFlag.RUNNING_TRUE, 4, nodeCount, 7)
+                .collect(Collectors.toList());
+
+        assertEquals(nodeCount * 7, walks.size());
+        final int[] starts = new int[nodeCount];
+        for (int[] walk : walks) {
+            assertEquals(4, walk.length);
+            assertEquals((walk[0] + 3) % nodeCount, walk[3]);
+            starts[walk[0]]++;
+        }
+        for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+            assertEquals(7, starts[nodeId]);
+        }
+    }
+
+    @Test
+    public void moreThreadsThanWalks() {
+        final List<int[]> walks = new NodeWalker()
+                .internalRandomWalk(2, ring(3), TerminationFlag.RUNNING_TRUE, 8, 3, 1)
+                .collect(Collectors.toList());
+
+        assertEquals(3, walks.size());
+    }
+
+    @Test
+    public void node2vecStepsOnlyReturnWithALowInOutFactor() {
+        Graph graph = load("Node");
+        int a = graph.toMappedNodeId(0);
+        int b = graph.toMappedNodeId(1);
+        int d = graph.toMappedNodeId(3);
+
+        // from a the only neighbour that is not the previous node or adjacent to it is d
+        NodeWalker.Node2VecNextNodeStrategy strategy = new NodeWalker.Node2VecNextNodeStrategy(graph, node2vecIndex(graph), 1e6, 1e-6);
+        int[] counts = new int[Math.toIntExact(graph.nodeCount())];
+        for (int i = 0; i < 1000; i++) {
+            counts[strategy.getNextNode(a, b)]++;
+        }
+        assertTrue(counts[d] > 990);
+    }
+
+    @Test
+    public void node2vecStepsAfterASelfLoopAreBiased() {
+        Graph graph = load("Loop");
+        int x = graph.toMappedNodeId(4);
+
+        // after stepping along the self-loop x is its own previous node, a low return factor keeps the walk at x
+        NodeWalker.Node2VecNextNodeStrategy strategy = new NodeWalker.Node2VecNextNodeStrategy(graph, node2vecIndex(graph), 1e-6, 1);
+        int[] counts = new int[Math.toIntExact(graph.nodeCount())];
+        for (int i = 0; i < 1000; i++) {
+            counts[strategy.getNextNode(x, x)]++;
+        }
+        assertTrue(counts[x] > 990);
+
+        // the first step of a walk has no previous node and is uniform
+        counts = new int[Math.toIntExact(graph.nodeCount())];
+        for (int i = 0; i < 1000; i++) {
+            counts[strategy.getNextNode(x, NodeWalker.NO_PREVIOUS_NODE)]++;
+        }
+        assertTrue(counts[x] < 990);
+    }
+
+    @Test
+    public void weightedStepsFollowTheRelationshipWeights() {
+        Graph graph = loadWeighted("Weighted");
+        int w = mappedId(graph, "w");
+        int u = mappedId(graph, "u");
+        int v = mappedId(graph, "v");
+        int o = mappedId(graph, "o");
+
+        NodeWalker.WeightedNextNodeStrategy strategy = NodeWalker.WeightedNextNodeStrategy.build(graph, Pools.DEFAULT, 2);
+        int[] counts = new int[Math.toIntExact(graph.nodeCount())];
+        int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            counts[strategy.getNextNode(w, NodeWalker.NO_PREVIOUS_NODE)]++;
+        }
+        assertEquals(0.99, (double) counts[u] / samples, 0.005);
+        assertEquals(0.01, (double) counts[v] / samples, 0.005);
+        // relationships of weight 0 are never followed
+        assertEquals(0, counts[o]);
+        // u only has the relationship from w
+        assertEquals(w, strategy.getNextNode(u, w));
+    }
+
+    @Test
+    public void zeroWeightsOnlyStepUniformly() {
+        Graph graph = loadWeighted("Zero");
+        int z = mappedId(graph, "z");
+        int z1 = mappedId(graph, "z1");
+        int z2 = mappedId(graph, "z2");
+
+        NodeWalker.WeightedNextNodeStrategy strategy = NodeWalker.WeightedNextNodeStrategy.build(graph, Pools.DEFAULT, 2);
+        int[] counts = new int[Math.toIntExact(graph.nodeCount())];
+        int samples = 10_000;
+        for (int i = 0; i < samples; i++) {
+            counts[strategy.getNextNode(z, NodeWalker.NO_PREVIOUS_NODE)]++;
+        }
+        assertEquals(0.5, (double) counts[z1] / samples, 0.05);
+        assertEquals(samples, counts[z1] + counts[z2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightsAreRejected() {
+        NodeWalker.WeightedNextNodeStrategy.build(loadWeighted("Negative"), Pools.DEFAULT, 2);
+    }
+}
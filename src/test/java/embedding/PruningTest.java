@@ -19,10 +19,12 @@ import org.neo4j.graphalgo.impl.GraphUnionFind;
 import org.neo4j.logging.FormattedLog;
 
 import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class PruningTest {
 
@@ -260,6 +262,88 @@ public class PruningTest {
 
     }
 
+    @Test
+    public void hashedPruningKeepsTheSameFeaturesAsExactPruning() {
+        Random random = new Random(7);
+        int rows = 200;
+
+        double[][] prevLayer = new double[rows][4];
+        double[][] layer = new double[rows][6];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < 4; column++) {
+                prevLayer[row][column] = random.nextInt(4);
+            }
+            // exact and near duplicates of earlier columns, then unrelated ones
+            layer[row][0] = prevLayer[row][1];
+            layer[row][1] = random.nextInt(20) == 0 ? 3 - prevLayer[row][2] : prevLayer[row][2];
+            layer[row][2] = random.nextInt(4);
+            layer[row][3] = layer[row][2];
+            layer[row][4] = random.nextInt(4);
+            layer[row][5] = random.nextInt(4);
+        }
+
+        Pruning.Embedding prevEmbedding = new Pruning.Embedding(features("prev", 4), FeatureMatrix.of(prevLayer));
+        Pruning.Embedding embedding = new Pruning.Embedding(features("layer", 6), FeatureMatrix.of(layer));
+
+        Pruning exact = new Pruning(0.7);
+        Pruning hashed = new Pruning(0.7).withLocalitySensitiveHashing(32, 8);
+
+        Pruning.Feature[] expected = exact.prune(prevEmbedding, embedding).getFeatures();
+        Pruning.Feature[] actual = hashed.prune(prevEmbedding, embedding).getFeatures();
+
+        assertEquals(7, expected.length);
+        assertArrayEquals(expected, actual);
+
+        FeatureMatrix combined = prevEmbedding.getEmbedding().concat(embedding.getEmbedding());
+        long compared = hashed.unionCandidates(combined, 4, new Pruning.FeatureSets(10), 200 * 0.7);
+        assertTrue(compared < 4 * 6 + 6 * 5 / 2);
+    }
+
+    @Test
+    public void hashedPruningComparesEqualColumnsOnlyOnce() {
+        int rows = 100;
+        int equalColumns = 500;
+        double[][] prevLayer = new double[rows][2];
+        double[][] layer = new double[rows][equalColumns];
+        for (int row = 0; row < rows; row++) {
+            prevLayer[row][0] = row % 3;
+            prevLayer[row][1] = row % 5;
+            // constant columns, as produced by degenerate operators
+            Arrays.fill(layer[row], 0);
+        }
+        FeatureMatrix combined = FeatureMatrix.of(prevLayer).concat(FeatureMatrix.of(layer));
+
+        Pruning hashed = new Pruning(0.7).withLocalitySensitiveHashing(32, 8);
+        Pruning.FeatureSets sets = new Pruning.FeatureSets(2 + equalColumns);
+        long compared = hashed.unionCandidates(combined, 2, sets, rows * 0.7);
+
+        // every column joins the first one of its bucket, later bands find them connected
+        assertTrue("compared " + compared + " pairs", compared < 2 * equalColumns);
+        assertArrayEquals(new int[]{0, 1, 2}, sets.roots());
+    }
+
+    @Test
+    public void keepsLowestFeatureOfEachComponent() {
+        // columns 3 and 4 duplicate 1, column 5 only duplicates 4 in more than half of the rows
+        FeatureMatrix embedding = FeatureMatrix.of(new double[][]{
+                {0, 1, 2, 1, 1, 1},
+                {0, 2, 0, 2, 2, 2},
+                {1, 3, 1, 3, 3, 0},
+                {1, 0, 2, 0, 0, 0},
+        });
+
+        assertArrayEquals(new int[]{0, 1, 2}, new Pruning(0.5).findFeaturesToKeep(embedding, 3));
+        assertArrayEquals(new int[]{0, 1, 2, 5}, new Pruning(0.75).findFeaturesToKeep(embedding, 3));
+    }
+
+    private static Pruning.Feature[] features(String prefix, int count) {
+        Pruning.Feature[] features = new Pruning.Feature[count];
+        for (int i = 0; i < count; i++) {
+            features[i] = new Pruning.Feature(prefix + i);
+        }
+        return features;
+    }
+
     @Test
     public void testRemoveInnerLoopForComparisons() {
         final double[][] doubles = {
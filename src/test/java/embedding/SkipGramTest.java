@@ -0,0 +1,88 @@
+package embedding;
+
+import org.deeplearning4j.graph.models.deepwalk.GraphHuffman;
+import org.junit.Test;
+import org.neo4j.graphalgo.core.utils.Pools;
+import org.neo4j.graphalgo.core.utils.TerminationFlag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SkipGramTest {
+
+    // two cliques of 5 nodes, joined by the edge 4 - 5
+    private static final int NODE_COUNT = 10;
+    private static final int[] DEGREES = {4, 4, 4, 4, 5, 5, 4, 4, 4, 4};
+
+    @Test
+    public void parallelTrainingSeparatesCommunities() {
+        final GraphHuffman tree = new GraphHuffman(NODE_COUNT);
+        tree.buildTree(DEGREES);
+
+        final SkipGram skipGram = SkipGram.hierarchicalSoftmax(NODE_COUNT, 8, tree, 0.025, 42L);
+        skipGram.train(walks().iterator(), 2, Pools.DEFAULT, 4, TerminationFlag.RUNNING_TRUE);
+
+        assertEquals(NODE_COUNT, skipGram.rows());
+        assertEquals(8, skipGram.dimensions());
+        assertSeparatesCommunities(skipGram);
+    }
+
+    @Test
+    public void negativeSamplingSeparatesCommunities() {
+        final SkipGram skipGram = SkipGram.negativeSampling(DEGREES, 8, 5, 0.025, 42L);
+        skipGram.train(walks().iterator(), 2, Pools.DEFAULT, 4, TerminationFlag.RUNNING_TRUE);
+
+        assertSeparatesCommunities(skipGram);
+    }
+
+    @Test
+    public void singleThreadedTrainingIsReproducible() {
+        final SkipGram first = SkipGram.negativeSampling(DEGREES, 8, 5, 0.025, 7L);
+        first.train(walks().iterator(), 2, Pools.DEFAULT, 1, TerminationFlag.RUNNING_TRUE);
+        final SkipGram second = SkipGram.negativeSampling(DEGREES, 8, 5, 0.025, 7L);
+        second.train(walks().iterator(), 2, Pools.DEFAULT, 1, TerminationFlag.RUNNING_TRUE);
+        final SkipGram other = SkipGram.negativeSampling(DEGREES, 8, 5, 0.025, 8L);
+        other.train(walks().iterator(), 2, Pools.DEFAULT, 1, TerminationFlag.RUNNING_TRUE);
+
+        for (int node = 0; node < NODE_COUNT; node++) {
+            assertArrayEquals(first.vector(node), second.vector(node), 0.0);
+        }
+        assertFalse(Arrays.equals(first.vector(0), other.vector(0)));
+    }
+
+    private static List<int[]> walks() {
+        final Random random = new Random(42);
+        final List<int[]> walks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final int community = i % 2;
+            final int[] walk = new int[10];
+            for (int step = 0; step < walk.length; step++) {
+                walk[step] = community * 5 + random.nextInt(5);
+            }
+            walks.add(walk);
+        }
+        return walks;
+    }
+
+    private static void assertSeparatesCommunities(SkipGram skipGram) {
+        assertTrue(cosine(skipGram.vector(0), skipGram.vector(1)) > cosine(skipGram.vector(0), skipGram.vector(6)));
+        assertTrue(cosine(skipGram.vector(7), skipGram.vector(8)) > cosine(skipGram.vector(7), skipGram.vector(2)));
+    }
+
+    private static double cosine(double[] a, double[] b) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}